@@ -0,0 +1,84 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.util.Collection;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the per frame decoding benchmarks with the GC profiler and
+    fails if they allocate memory. Once the decoder has been created,
+    decoding a frame and computing its loudness must not allocate, so
+    that many concurrent searches do not keep the garbage collector busy.
+    Exits with status 1 if a benchmark allocates
+    {@link #MAX_BYTES_PER_FRAME} or more bytes per frame.
+*/
+public class AllocationCheck
+{
+    /** The benchmarks that must not allocate. */
+    private static final String BENCHMARKS =
+        "SearchBenchmark.decodeFrameLoudness|DecoderBenchmark.layerIIIDecodeNextFrame";
+
+    /** The allocation per frame that is attributed to the measurement
+        itself rather than to the benchmark. */
+    private static final double MAX_BYTES_PER_FRAME = 1.0;
+
+    private AllocationCheck()
+    {
+        // main method only
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        final Options options = new OptionsBuilder()
+            .include(BENCHMARKS)
+            .addProfiler(GCProfiler.class)
+            .warmupIterations(5)
+            .measurementIterations(3)
+            .forks(1)
+            .build();
+        final Collection<RunResult> results = new Runner(options).run();
+
+        boolean failed = results.isEmpty();
+        for (RunResult result : results)
+        {
+            final String name = result.getParams().getBenchmark();
+            final Result alloc = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            if (alloc == null)
+            {
+                System.out.println(name + ": no allocation measured");
+                failed = true;
+            }
+            else
+            {
+                final boolean ok = alloc.getScore() < MAX_BYTES_PER_FRAME;
+                System.out.println(name + ": " + alloc.getScore() + " bytes per frame"
+                    + (ok ? "" : ", FAILED"));
+                failed |= !ok;
+            }
+        }
+        if (failed)
+        {
+            System.exit(1);
+        }
+    }
+}
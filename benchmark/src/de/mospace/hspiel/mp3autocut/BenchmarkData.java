@@ -0,0 +1,93 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/** Locates the synthetic mp3 files of the benchmarks, see {@link SyntheticMP3}.
+    The files are looked up in the directory given by the system property
+    <code>benchmark.data</code>, by default <code>data</code>.
+*/
+public class BenchmarkData
+{
+    private BenchmarkData()
+    {
+        // static methods only
+    }
+
+    /** Returns the specified synthetic mp3 file. */
+    public static File file(String name) throws IOException
+    {
+        final File f = new File(System.getProperty("benchmark.data", "data"), name);
+        if (!f.isFile())
+        {
+            throw new IOException("Missing benchmark data " + f +
+                ". Run the data target of the benchmark build first.");
+        }
+        return f;
+    }
+
+    /** Returns the content of the specified synthetic mp3 file. */
+    public static byte[] read(String name) throws IOException
+    {
+        final RandomAccessFile in = new RandomAccessFile(file(name), "r");
+        try
+        {
+            final byte[] result = new byte[(int) in.length()];
+            in.readFully(result);
+            return result;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** An input stream that repeats the specified bytes forever. It lets
+        a benchmark decode one frame per invocation without ever creating
+        a new reader. */
+    public static class LoopInputStream extends InputStream
+    {
+        private final byte[] data;
+        private int pos = 0;
+
+        public LoopInputStream(byte[] data)
+        {
+            this.data = data;
+        }
+
+        @Override
+        public int read()
+        {
+            final int b = data[pos] & 0xff;
+            pos = (pos + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            final int n = Math.min(len, data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos = (pos + n) % data.length;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.util.Locale;
+
+/** Compares the loudness of decoded samples with the fast loudness
+    envelope, see {@link MP3Search#isFastEnvelope}.
+    <p>For both kinds of envelope, the benchmark measures how fast the
+    envelope of an entire mp3 file is computed, and where and how well
+    a pattern is found in that file.</p>
+    <p>Usage: <code>EnvelopeBenchmark [pattern.mp3 file.mp3 [runs]]</code></p>
+    <p>Without arguments, the synthetic marker is searched in the
+    synthetic show, see {@link BenchmarkData}.</p>
+*/
+public class EnvelopeBenchmark
+{
+    private EnvelopeBenchmark()
+    {
+        // main method only
+    }
+
+    public static void main(String[] argv) throws Exception
+    {
+        if (argv.length == 1)
+        {
+            System.err.println("Usage: EnvelopeBenchmark [pattern.mp3 file.mp3 [runs]]");
+            System.exit(1);
+        }
+
+        final File pattern = (argv.length > 0) ? new File(argv[0]) : BenchmarkData.file("marker.mp3");
+        final File mp3 = (argv.length > 0) ? new File(argv[1]) : BenchmarkData.file("show.mp3");
+        final int runs = (argv.length > 2) ? Integer.parseInt(argv[2]) : 3;
+        final double seconds = MP3AutoCut.toMP3File(mp3).getPlayingTime();
+        final SearchResult[] result = new SearchResult[2];
+        final boolean[] modes = { false, true };
+
+        for (int m = 0; m < modes.length; m++)
+        {
+            final String name = modes[m] ? "fast" : "pcm";
+
+            /* reading the entire file as a pattern computes its envelope */
+            long envelopeNanos = Long.MAX_VALUE;
+            long searchNanos = Long.MAX_VALUE;
+            for (int r = 0; r < runs; r++)
+            {
+                long t0 = System.nanoTime();
+                new MP3Search(mp3, modes[m]);
+                envelopeNanos = Math.min(envelopeNanos, System.nanoTime() - t0);
+
+                t0 = System.nanoTime();
+                result[m] = new MP3Search(pattern, modes[m]).searchStep(
+                    mp3, 0, Integer.MAX_VALUE);
+                searchNanos = Math.min(searchNanos, System.nanoTime() - t0);
+            }
+
+            System.out.printf((Locale) null,
+                "%-4s envelope %8.1f ms (%6.1f x realtime)  search %8.1f ms  " +
+                "match at frame %d with cross-correlation %.4f\n",
+                name,
+                envelopeNanos * 1e-6,
+                seconds/(envelopeNanos * 1e-9),
+                searchNanos * 1e-6,
+                result[m].getStart().getFrameCount(),
+                result[m].getCorrelation());
+        }
+
+        System.out.printf((Locale) null, "fast match is %d frames off\n",
+            result[1].getStart().getFrameCount() - result[0].getStart().getFrameCount());
+    }
+}
@@ -0,0 +1,199 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of reading, loudness computation, correlation and
+    position lookup on the synthetic mp3 files, see {@link SyntheticMP3}.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark
+{
+    private byte[] minute;
+    private File marker;
+    private File compiledMarker;
+    private File show;
+    private MP3Search search;
+
+    /* the loudness of show.mp3, POINTS_PER_FRAME values per frame */
+    private double[][] loudness;
+    private int samplesPerFrame;
+
+    private int[] framecounts;
+
+    /* the steady state per frame work of a search */
+    private MP3Reader loopReader;
+    private LoudnessOBuffer loopLoudness;
+    private double[] frameloudness;
+
+    @Setup
+    public void setUp() throws IOException, MP3SearchException
+    {
+        minute = BenchmarkData.read("minute.mp3");
+        marker = BenchmarkData.file("marker.mp3");
+        show = BenchmarkData.file("show.mp3");
+        search = new MP3Search(marker);
+        compiledMarker = File.createTempFile("marker", ".pattern");
+        compiledMarker.deleteOnExit();
+        search.writePattern(compiledMarker);
+
+        /* decode the loudness once for the correlation benchmark,
+           at the quality of the marker like a search does */
+        final ByteArrayInputStream in = new ByteArrayInputStream(BenchmarkData.read("show.mp3"));
+        final MP3Reader reader = new MP3Reader(in, search.getQuality());
+        final LoudnessOBuffer sampleLoudness = reader.createLoudnessOutput();
+        final List<double[]> frames = new ArrayList<double[]>();
+        while (reader.hasMoreFrames())
+        {
+            reader.readFrame(true);
+            if (sampleLoudness.getSampleCount() > 0)
+            {
+                samplesPerFrame = sampleLoudness.getSampleCount();
+                final double[] frameloudness = new double[MP3Search.POINTS_PER_FRAME];
+                sampleLoudness.frameLoudness(frameloudness);
+                frames.add(frameloudness);
+            }
+        }
+        loudness = frames.toArray(new double[frames.size()][]);
+
+        /* builds the frame index on first use */
+        final Random random = new Random(1);
+        framecounts = new int[1000];
+        for (int k = 0; k < framecounts.length; k++)
+        {
+            framecounts[k] = random.nextInt(loudness.length);
+        }
+        MP3Position.getPositionsForFrameCounts(framecounts, show);
+
+        loopReader = new MP3Reader(new BenchmarkData.LoopInputStream(minute),
+            MP3Search.SYNTHESIS_QUALITY);
+        loopLoudness = loopReader.createLoudnessOutput();
+        frameloudness = new double[MP3Search.POINTS_PER_FRAME];
+    }
+
+    /** MP3Reader.readFrame: reads and decodes every frame of one minute of audio. */
+    @Benchmark
+    public int mp3ReaderReadFrameDecode() throws MP3SearchException
+    {
+        return readFrames(true);
+    }
+
+    /** MP3Reader.readFrame: reads every frame of one minute of audio
+        without decoding. */
+    @Benchmark
+    public int mp3ReaderReadFrameNoDecode() throws MP3SearchException
+    {
+        return readFrames(false);
+    }
+
+    private int readFrames(boolean decode) throws MP3SearchException
+    {
+        final MP3Reader reader = new MP3Reader(new ByteArrayInputStream(minute));
+        final ShortBuffer sampleBuffer = reader.getOutput();
+        while (reader.hasMoreFrames())
+        {
+            reader.readFrame(decode);
+            sampleBuffer.clear();
+        }
+        return reader.getFrameCount();
+    }
+
+    /** MP3Reader.readFrame and LoudnessOBuffer.frameLoudness: decodes the
+        next frame of an endless stream and computes its loudness, the work
+        a search does per frame. It allocates nothing once the decoder has
+        been created, see {@link AllocationCheck}. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double decodeFrameLoudness() throws MP3SearchException
+    {
+        loopReader.readFrame(true);
+        loopLoudness.frameLoudness(frameloudness);
+        return frameloudness[0];
+    }
+
+    /** MP3Search.readLoudness: compiles the ten second marker, which
+        decodes it and computes its loudness. */
+    @Benchmark
+    public MP3Search mp3SearchReadLoudness() throws IOException, MP3SearchException
+    {
+        return new MP3Search(marker);
+    }
+
+    /** Loads the compiled marker and the spectrum of its first block
+        size, the work per marker at startup. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[][] mp3SearchReadPattern() throws IOException, MP3SearchException
+    {
+        final MP3Search s = new MP3Search(compiledMarker);
+        return s.getSpectrum(s.getBlockSize());
+    }
+
+    /** Correlates the precomputed loudness of five minutes of audio with
+        the marker, the part of MP3Search.search that follows decoding. */
+    @Benchmark
+    public float mp3SearchCorrelate()
+    {
+        final MP3Search.Correlation c = search.newCorrelation(0, Integer.MAX_VALUE);
+        c.wantsNextFrame(0);
+        for (int k = 0; k < loudness.length; k++)
+        {
+            c.put(loudness[k], samplesPerFrame, k + 1);
+        }
+        c.finish();
+        return c.getResult().getCorrelation();
+    }
+
+    /** MP3Search.search: searches five minutes of audio for the marker. */
+    @Benchmark
+    public SearchResult mp3SearchSearch() throws IOException, MP3SearchException
+    {
+        return search.search(show, 0, Integer.MAX_VALUE);
+    }
+
+    /** MP3Position.getPositionsForFrameCounts: looks up 1000 random
+        frame counts in the persisted frame index. */
+    @Benchmark
+    public MP3Position[] mp3PositionGetPositionsForFrameCounts()
+    throws IOException, MP3SearchException
+    {
+        return MP3Position.getPositionsForFrameCounts(framecounts, show);
+    }
+}
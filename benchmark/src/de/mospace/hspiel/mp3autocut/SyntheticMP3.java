@@ -0,0 +1,295 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/** Writes synthetic constant bitrate mp3 files for the benchmarks.
+    <p>The files are MPEG 1 layer III, 44.1 kHz, stereo, 128 kbit/s.
+    Every granule carries pseudo-random spectral values of &plusmn;1 that
+    are coded with count1 table B, which needs no encoder tables. The
+    loudness of the granules follows a random walk of the global gain
+    with occasional pauses. The main data of each frame lies in the frame
+    itself, so that every frame decodes without a bit reservoir.</p>
+    <p>The files are</p>
+    <ul>
+    <li><code>marker.mp3</code>, ten seconds of audio that serve as a pattern,</li>
+    <li><code>minute.mp3</code>, one minute of audio with the marker at 20 s,</li>
+    <li><code>show.mp3</code>, five minutes of audio with the marker at 100 s.</li>
+    </ul>
+    <p>The output is the same on every run.</p>
+    <p>Usage: <code>SyntheticMP3 directory</code></p>
+*/
+public class SyntheticMP3
+{
+    /** The sample frequency in Hz. */
+    private final static int FREQUENCY = 44100;
+
+    /** The bitrate in bit/s. */
+    private final static int BITRATE = 128000;
+
+    /** The playing time of a frame in milliseconds. */
+    private final static double MS_PER_FRAME = 1152 * 1000.0 / FREQUENCY;
+
+    private final static int CHANNELS = 2;
+    private final static int GRANULES = 2;
+
+    /** The size of the side information of a stereo frame in bytes. */
+    private final static int SIDE_INFO_SIZE = 32;
+
+    /** The number of spectral lines of a granule. */
+    private final static int LINES = 576;
+
+    private final static long MARKER_SEED = 4711;
+    private final static long PROGRAM_SEED = 1;
+
+    /** The fraction of the padding slots accumulated so far. */
+    private int padding = 0;
+
+    public static void main(String[] argv) throws IOException
+    {
+        if (argv.length != 1)
+        {
+            System.err.println("Usage: SyntheticMP3 directory");
+            System.exit(1);
+        }
+
+        final File dir = new File(argv[0]);
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new IOException("Cannot create directory " + dir);
+        }
+
+        write(new File(dir, "marker.mp3"), 0, 10000, -1);
+        write(new File(dir, "minute.mp3"), 60000, 0, 20000);
+        write(new File(dir, "show.mp3"), 300000, 0, 100000);
+    }
+
+    /** Writes a synthetic mp3 file.
+        @param f the output file
+        @param programMillis the playing time of the random program
+        @param markerMillis the playing time of the marker if there is
+            no program
+        @param markerAt the playing time at which the marker is inserted
+            into the program, or -1 if there is no program
+    */
+    private static void write(File f, int programMillis, int markerMillis, int markerAt)
+    throws IOException
+    {
+        final int markerFrames = frames(10000);
+        final OutputStream out = new FileOutputStream(f);
+        try
+        {
+            final SyntheticMP3 me = new SyntheticMP3();
+            if (markerAt < 0)
+            {
+                me.program(out, new Random(MARKER_SEED), frames(markerMillis));
+            }
+            else
+            {
+                final Random program = new Random(PROGRAM_SEED);
+                final int before = frames(markerAt);
+                me.program(out, program, before);
+                me.program(out, new Random(MARKER_SEED), markerFrames);
+                me.program(out, program, frames(programMillis) - before - markerFrames);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static int frames(int millis)
+    {
+        return (int) Math.round(millis / MS_PER_FRAME);
+    }
+
+    /** Writes frames whose loudness and content are drawn from the
+        specified random sequence. */
+    private void program(OutputStream out, Random random, int frames) throws IOException
+    {
+        int gain = 170;
+        int pause = 0;
+        final int[] gains = new int[GRANULES];
+        for (int k = 0; k < frames; k++)
+        {
+            for (int gr = 0; gr < GRANULES; gr++)
+            {
+                if (pause > 0)
+                {
+                    pause--;
+                    gains[gr] = 90;
+                }
+                else
+                {
+                    if (random.nextInt(200) == 0)
+                    {
+                        pause = 10 + random.nextInt(30);
+                    }
+                    gain = Math.max(140, Math.min(200, gain + random.nextInt(7) - 3));
+                    gains[gr] = gain;
+                }
+            }
+            out.write(frame(random, gains));
+        }
+    }
+
+    /** Returns the bytes of a single frame. */
+    private byte[] frame(Random random, int[] gains)
+    {
+        /* constant bitrate: pad every frame that completes another slot */
+        final int slotsTimesFrequency = 144 * BITRATE;
+        padding += slotsTimesFrequency % FREQUENCY;
+        int pad = 0;
+        if (padding >= FREQUENCY)
+        {
+            padding -= FREQUENCY;
+            pad = 1;
+        }
+        final int framesize = slotsTimesFrequency / FREQUENCY + pad;
+
+        /* the main data of a granule and channel gets a quarter of the frame */
+        final int budget = (framesize - 4 - SIDE_INFO_SIZE) * 8 / (GRANULES * CHANNELS);
+        final BitWriter main = new BitWriter(framesize - 4 - SIDE_INFO_SIZE);
+        final int[][] part23 = new int[GRANULES][CHANNELS];
+        for (int gr = 0; gr < GRANULES; gr++)
+        {
+            for (int ch = 0; ch < CHANNELS; ch++)
+            {
+                part23[gr][ch] = count1(main, random, budget);
+            }
+        }
+
+        final BitWriter w = new BitWriter(framesize);
+
+        /* header: sync, MPEG 1, layer III, no CRC, bitrate index 9, 44.1 kHz, stereo */
+        w.write(0x7FF, 11);
+        w.write(3, 2);
+        w.write(1, 2);
+        w.write(1, 1);
+        w.write(9, 4);
+        w.write(0, 2);
+        w.write(pad, 1);
+        w.write(0, 1);
+        w.write(0, 2);
+        w.write(0, 2);
+        w.write(0, 1);
+        w.write(1, 1);
+        w.write(0, 2);
+
+        /* side information: main data begins in this frame, no scfsi */
+        w.write(0, 9);
+        w.write(0, 3);
+        w.write(0, 4 * CHANNELS);
+        for (int gr = 0; gr < GRANULES; gr++)
+        {
+            for (int ch = 0; ch < CHANNELS; ch++)
+            {
+                w.write(part23[gr][ch], 12);
+                w.write(0, 9);              // big_values
+                w.write(gains[gr], 8);      // global_gain
+                w.write(0, 4);              // scalefac_compress: no scale factor bits
+                w.write(0, 1);              // window_switching_flag
+                w.write(0, 15);             // table_select
+                w.write(0, 4);              // region0_count
+                w.write(0, 3);              // region1_count
+                w.write(0, 1);              // preflag
+                w.write(0, 1);              // scalefac_scale
+                w.write(1, 1);              // count1table_select: table B
+            }
+        }
+
+        w.write(main.bytes, main.bytes.length);
+        return w.bytes;
+    }
+
+    /** Writes pseudo-random quadruples of spectral values with count1
+        table B, whose code for a quadruple of magnitudes vwxy is the
+        4 bit complement of vwxy, followed by a sign bit for each value
+        that is not zero.
+        @return the number of bits written
+    */
+    private static int count1(BitWriter w, Random random, int budget)
+    {
+        int bits = 0;
+        for (int line = 0; line < LINES; line += 4)
+        {
+            /* the upper spectral lines are sparse */
+            final int density = 1 + 6 * line / LINES;
+            int quad = 0;
+            int nonzero = 0;
+            for (int j = 0; j < 4; j++)
+            {
+                quad <<= 1;
+                if (random.nextInt(density + 1) == 0)
+                {
+                    quad |= 1;
+                    nonzero++;
+                }
+            }
+
+            if (bits + 4 + nonzero > budget)
+            {
+                break;
+            }
+
+            w.write(15 - quad, 4);
+            w.write(random.nextInt(1 << nonzero), nonzero);
+            bits += 4 + nonzero;
+        }
+        return bits;
+    }
+
+    /** Writes bits most significant bit first into a zero-filled array. */
+    private static class BitWriter
+    {
+        final byte[] bytes;
+        private int position = 0;
+
+        BitWriter(int length)
+        {
+            bytes = new byte[length];
+        }
+
+        /** Writes the lowest n bits of value. */
+        void write(int value, int n)
+        {
+            for (int k = n - 1; k >= 0; k--)
+            {
+                if (((value >>> k) & 1) != 0)
+                {
+                    bytes[position >>> 3] |= (byte) (0x80 >>> (position & 7));
+                }
+                position++;
+            }
+        }
+
+        /** Writes the first n bytes of the specified array. */
+        void write(byte[] b, int n)
+        {
+            for (int k = 0; k < n; k++)
+            {
+                write(b[k] & 0xFF, 8);
+            }
+        }
+    }
+}
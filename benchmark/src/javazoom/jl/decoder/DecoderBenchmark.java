@@ -0,0 +1,281 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package javazoom.jl.decoder;
+
+import de.mospace.hspiel.mp3autocut.BenchmarkData;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the frame parsing, layer III decoding and polyphase
+    synthesis of the decoder. The frame benchmarks process the one minute
+    synthetic mp3 file from memory, see
+    {@link de.mospace.hspiel.mp3autocut.SyntheticMP3}.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark
+{
+    private byte[] mp3;
+    private File mp3File;
+
+    /* polyphase synthesis */
+    private SynthesisFilter filter;
+    private SynthesisFilter mediumFilter;
+    private float[] subbandSamples;
+    private SinkBuffer sink;
+
+    /* dequantisation of the last granule of a frame in the middle of the file */
+    private LayerIIIDecoder dequantizer;
+    private float[][] dequantized;
+
+    /* steady state decoding of an endless stream */
+    private Bitstream loopStream;
+    private LayerIIIDecoder loopDecoder;
+
+    @Setup
+    public void setUp() throws IOException, BitstreamException
+    {
+        mp3 = BenchmarkData.read("minute.mp3");
+        mp3File = BenchmarkData.file("minute.mp3");
+
+        final Random random = new Random(1);
+        subbandSamples = new float[32];
+        for (int k = 0; k < subbandSamples.length; k++)
+        {
+            subbandSamples[k] = (float) random.nextGaussian() / (k + 1);
+        }
+        filter = new SynthesisFilter(0, 32700.0f, null);
+        mediumFilter = new SynthesisFilter(0, 32700.0f, null);
+        mediumFilter.setQuality(SynthesisFilter.MEDIUM_QUALITY);
+        sink = new SinkBuffer();
+
+        final Bitstream stream = new Bitstream(new ByteArrayInputStream(mp3));
+        final Header header = stream.readFrame();
+        dequantizer = new LayerIIIDecoder(stream, header,
+            new SynthesisFilter(0, 32700.0f, null),
+            new SynthesisFilter(1, 32700.0f, null),
+            new SinkBuffer(), OutputChannels.BOTH_CHANNELS);
+        for (int frames = header.max_number_of_frames(mp3.length) / 2; frames > 0; frames--)
+        {
+            dequantizer.decodeFrame();
+            stream.closeFrame();
+            stream.readFrame();
+        }
+        dequantizer.decodeFrame();
+        dequantized = new float[32][18];
+
+        loopStream = new Bitstream(new BenchmarkData.LoopInputStream(mp3));
+        loopDecoder = new LayerIIIDecoder(loopStream, loopStream.readFrame(),
+            new SynthesisFilter(0, 32700.0f, null),
+            new SynthesisFilter(1, 32700.0f, null),
+            sink, OutputChannels.BOTH_CHANNELS);
+    }
+
+    /** Bitstream.readFrame: reads the header and payload of every frame. */
+    @Benchmark
+    public int bitstreamReadFrame() throws BitstreamException
+    {
+        final Bitstream stream = new Bitstream(new ByteArrayInputStream(mp3));
+        int frames = 0;
+        while (stream.readFrame() != null)
+        {
+            stream.closeFrame();
+            frames++;
+        }
+        return frames;
+    }
+
+    /** Bitstream.readFrame: reads the header and payload of every frame
+        from a memory mapping of the file. */
+    @Benchmark
+    public int bitstreamReadFrameMapped() throws IOException, BitstreamException
+    {
+        final FileInputStream in = new FileInputStream(mp3File);
+        try
+        {
+            final Bitstream stream = new Bitstream(in.getChannel());
+            int frames = 0;
+            while (stream.readFrame() != null)
+            {
+                stream.closeFrame();
+                frames++;
+            }
+            return frames;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** Bitstream.readFrame: reads the header and payload of every frame
+        from a file. */
+    @Benchmark
+    public int bitstreamReadFrameFile() throws IOException, BitstreamException
+    {
+        final FileInputStream in = new FileInputStream(mp3File);
+        try
+        {
+            final Bitstream stream = new Bitstream(in);
+            int frames = 0;
+            while (stream.readFrame() != null)
+            {
+                stream.closeFrame();
+                frames++;
+            }
+            return frames;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** LayerIIIDecoder.decodeFrame: reads and decodes every frame to
+        16 bit samples of both channels. */
+    @Benchmark
+    public long layerIIIDecodeFrame() throws BitstreamException
+    {
+        return decodeFrames(OutputChannels.BOTH_CHANNELS);
+    }
+
+    /** LayerIIIDecoder.decodeFrame: reads and decodes every frame to
+        16 bit samples of the downmix of both channels. */
+    @Benchmark
+    public long layerIIIDecodeFrameDownmix() throws BitstreamException
+    {
+        return decodeFrames(OutputChannels.DOWNMIX_CHANNELS);
+    }
+
+    private long decodeFrames(int channels) throws BitstreamException
+    {
+        final Bitstream stream = new Bitstream(new ByteArrayInputStream(mp3));
+        final SinkBuffer buffer = new SinkBuffer();
+        Header header = stream.readFrame();
+        final LayerIIIDecoder decoder = new LayerIIIDecoder(stream, header,
+            new SynthesisFilter(0, 32700.0f, null),
+            new SynthesisFilter(1, 32700.0f, null),
+            buffer, channels);
+        while (header != null)
+        {
+            decoder.decodeFrame();
+            stream.closeFrame();
+            header = stream.readFrame();
+        }
+        return buffer.checksum;
+    }
+
+    /** LayerIIIDecoder.decodeFrame: reads and decodes the next frame of
+        an endless stream to 16 bit samples of both channels. It allocates
+        nothing, see {@link de.mospace.hspiel.mp3autocut.AllocationCheck}. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long layerIIIDecodeNextFrame() throws BitstreamException
+    {
+        loopDecoder.decodeFrame();
+        loopStream.closeFrame();
+        loopStream.readFrame();
+        return sink.checksum;
+    }
+
+    /** LayerIIIDecoder.dequantize_sample: computes the 576 spectral values
+        of the second granule of the right channel from its huffman
+        decoded values, scale factors and global gain. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public float layerIIIDequantizeSample()
+    {
+        dequantizer.dequantize_sample(dequantized, 1, 1);
+        return dequantized[0][0];
+    }
+
+    /** SynthesisFilter.calculate_pcm_samples: computes 32 samples from
+        32 subband samples. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long synthesisFilterCalculatePcmSamples()
+    {
+        filter.input_samples(subbandSamples);
+        filter.calculate_pcm_samples(sink);
+        return sink.checksum;
+    }
+
+    /** SynthesisFilter.calculate_pcm_samples at medium quality: computes
+        16 samples from the lower 16 of 32 subband samples. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long synthesisFilterCalculatePcmSamplesMedium()
+    {
+        mediumFilter.input_samples(subbandSamples);
+        mediumFilter.calculate_pcm_samples(sink);
+        return sink.checksum;
+    }
+
+    /** Sums the samples appended to it. */
+    static class SinkBuffer extends Obuffer
+    {
+        long checksum = 0;
+
+        @Override
+        public void append(int channel, short value)
+        {
+            checksum += value;
+        }
+
+        @Override
+        public void write_buffer(int val)
+        {
+            // does nothing.
+        }
+
+        @Override
+        public void close()
+        {
+            // does nothing.
+        }
+
+        @Override
+        public void clear_buffer()
+        {
+            // does nothing.
+        }
+
+        @Override
+        public void set_stop_flag()
+        {
+            // does nothing.
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * 10/17/26		Initial version.
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+
+package javazoom.jl.decoder;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A FloatKernel that uses the Vector API with 8 float lanes.
+ * <p>
+ * The polyphase synthesis computes 8 output samples per vector, and the
+ * alias reduction computes the 8 butterflies between two subbands per
+ * vector. No operation is fused, so the results equal those of the
+ * scalar code.
+ * <p>
+ * Requires JDK 16 or later and <code>--add-modules jdk.incubator.vector</code>.
+ */
+final class VectorKernel extends FloatKernel
+{
+	private static final VectorSpecies<Float>	S = FloatVector.SPECIES_256;
+
+	private static final int	LANES = 8;
+
+	/** Reverses the order of the lanes. */
+	private static final VectorShuffle<Float>	REVERSE =
+		VectorShuffle.fromValues(S, 7, 6, 5, 4, 3, 2, 1, 0);
+
+	/** The offsets in v of 8 consecutive output samples by quality. */
+	private static final int[][]	SAMPLES = new int[5][];
+
+	static
+	{
+		for (int step=1; step<=4; step*=2)
+		{
+			SAMPLES[step] = new int[LANES];
+			for (int l=0; l<LANES; l++)
+				SAMPLES[step][l] = 16 * step * l;
+		}
+	}
+
+	boolean isSupported()
+	{
+		return FloatVector.SPECIES_PREFERRED.length() >= LANES;
+	}
+
+	void window(float[] v, int pos, int step, float[][] window,
+		int n, float scalefactor, float[] out)
+	{
+		final int[] map = SAMPLES[step];
+
+		for (int i=0; i<n; i+=LANES)
+		{
+			final int dvp = 16 * step * i;
+			FloatVector pcm = FloatVector.fromArray(S, v, dvp + pos, map, 0)
+				.mul(FloatVector.fromArray(S, window[0], i));
+			for (int k=1; k<16; k++)
+			{
+				pcm = pcm.add(FloatVector.fromArray(S, v, dvp + ((pos - k) & 0xf), map, 0)
+					.mul(FloatVector.fromArray(S, window[k], i)));
+			}
+			pcm.mul(scalefactor).intoArray(out, i);
+		}
+	}
+
+	void antialias(float[] x, int sb18lim, float[] cs, float[] ca)
+	{
+		final FloatVector vcs = FloatVector.fromArray(S, cs, 0);
+		final FloatVector vca = FloatVector.fromArray(S, ca, 0);
+
+		for (int sb18=0; sb18<sb18lim; sb18+=18)
+		{
+			// bu[ss] = x[sb18 + 17 - ss], bd[ss] = x[sb18 + 18 + ss]
+			final FloatVector bu = FloatVector.fromArray(S, x, sb18 + 10).rearrange(REVERSE);
+			final FloatVector bd = FloatVector.fromArray(S, x, sb18 + 18);
+			bu.mul(vcs).sub(bd.mul(vca)).rearrange(REVERSE).intoArray(x, sb18 + 10);
+			bd.mul(vcs).add(bu.mul(vca)).intoArray(x, sb18 + 18);
+		}
+	}
+}
@@ -79,6 +79,17 @@ public class WaveFileObuffer extends Obuffer
     bufferp[channel] += channels;
   }
 
+  public void appendBlock(int channel, float[] f, int off, int len)
+  {
+    int pos = bufferp[channel];
+    for (int i=off; i<off+len; i++)
+    {
+      buffer[pos] = clip(f[i]);
+      pos += channels;
+    }
+    bufferp[channel] = (short)pos;
+  }
+
   /**
    * Write the samples to the file (Random Acces).
    */
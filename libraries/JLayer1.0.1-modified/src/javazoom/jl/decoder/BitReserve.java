@@ -30,11 +30,11 @@ package javazoom.jl.decoder;
 /**
  * Implementation of Bit Reservoir for Layer III.
  * <p>
- * The implementation stores single bits as a word in the buffer. If
- * a bit is set, the corresponding word in the buffer will be non-zero.
- * If a bit is clear, the corresponding word is zero. Although this
- * may seem waseful, this can be a factor of two quicker than 
- * packing 8 bits to a byte and extracting. 
+ * The implementation stores the bytes of the main data in a ring
+ * buffer. Bits are read from a 64 bit word that is assembled from the
+ * 8 bytes at the read position, so that hgetbits() needs no per-bit
+ * loop. The first 8 bytes of the buffer are mirrored behind its end,
+ * so that the word can be read without wrapping the index.
  * <p> 
  */
 
@@ -43,28 +43,32 @@ package javazoom.jl.decoder;
 final class BitReserve
 {
    /**
-    * Size of the internal buffer to store the reserved bits.
-    * Must be a power of 2. And x8, as each bit is stored as a single
-    * entry.
+    * Size of the internal buffer to store the reserved bytes.
+    * Must be a power of 2.
     */
-	private static final int		BUFSIZE = 4096*8;
+	private static final int		BUFSIZE = 4096;
 	
 	/**
 	 * Mask that can be used to quickly implement the
 	 * modulus operation on BUFSIZE.
 	 */
 	private static final int		BUFSIZE_MASK = BUFSIZE-1;
+
+	/**
+	 * Mask that implements the modulus operation on the number
+	 * of bits in the buffer.
+	 */
+	private static final int		BITSIZE_MASK = BUFSIZE*8-1;
 	
-	private int 					offset, totbit, buf_byte_idx;
-	private final int[] 			buf = new int[BUFSIZE];
-	private int 					buf_bit_idx;
+	private int 					offset, totbit, buf_bit_idx;
+	private final byte[] 			buf = new byte[BUFSIZE+8];
 	
    BitReserve()
    {
 	  
 	  offset = 0;
       totbit = 0;
-      buf_byte_idx = 0;	  
+      buf_bit_idx = 0;	  
    }
       
    
@@ -78,59 +82,55 @@ final class BitReserve
 
    /**
     * Read a number bits from the bit stream.
-    * @param N the number of
+    * @param N the number of bits. Of more than 32 bits, only
+    *			the last 32 are returned.
 	*/
    public int hgetbits(int N)
    {
-   	 totbit += N;
-	 
-	 int val = 0;
-	 
-	 int pos = buf_byte_idx;
-	 if (pos+N < BUFSIZE)
+	 if (N > 32)
 	 {
-		while (N-- > 0)
-		{
-			val <<= 1;
-			val |= ((buf[pos++]!=0) ? 1 : 0);		 
-		}
-	}
-	 else
-	 {	 
-		 while (N-- > 0)
-		{
-			 val <<= 1;			 
-			 val |= ((buf[pos]!=0) ? 1 : 0);
-			 pos = (pos+1) & BUFSIZE_MASK;
-		}		 
-	 }	
-	 buf_byte_idx = pos;
+		 hskipbits(N - 32);
+		 N = 32;
+	 }
+	 int val = hpeekbits(N);
+	 hskipbits(N);
 	 return val;
    }
-   
-	 
-   
+
    /**
-    * Read 1 bit from the bit stream.
+    * Returns the next N bits from the bit stream without
+    * consuming them. Use hskipbits() to consume them.
+    * @param N the number of bits, at most 32.
 	*/
-/*
-   public int hget1bit_old()
+   public int hpeekbits(int N)
    {
-   	  int val;
-	  totbit++;
-	  if (buf_bit_idx == 0)
-	  {
-         buf_bit_idx = 8;
-	     buf_byte_idx++;		 
-	  }
-      // BUFSIZE = 4096 = 2^12, so
-      // buf_byte_idx%BUFSIZE == buf_byte_idx & 0xfff
-      val = buf[buf_byte_idx & BUFSIZE_MASK] & putmask[buf_bit_idx];
-      buf_bit_idx--;
-	  val = val >>> buf_bit_idx;
-      return val;   
+	 if (N == 0)
+		 return 0;
+
+	 final byte[] b = buf;
+	 int pos = buf_bit_idx;
+	 int i = pos >>> 3;
+	 long word = ((long)b[i] << 56)
+			   | ((long)(b[i+1] & 0xff) << 48)
+			   | ((long)(b[i+2] & 0xff) << 40)
+			   | ((long)(b[i+3] & 0xff) << 32)
+			   | ((long)(b[i+4] & 0xff) << 24)
+			   | ((b[i+5] & 0xff) << 16)
+			   | ((b[i+6] & 0xff) << 8)
+			   | (b[i+7] & 0xff);
+	 return (int)((word << (pos & 7)) >>> (64 - N));
    }
- */
+
+   /**
+    * Consumes N bits, usually bits that have been looked at
+    * with hpeekbits().
+	*/
+   public void hskipbits(int N)
+   {
+	 totbit += N;
+	 buf_bit_idx = (buf_bit_idx+N) & BITSIZE_MASK;
+   }
+   
    /**
     * Returns next bit from reserve.
     * @returns 0 if next bit is reset, or 1 if next bit is set.
@@ -138,43 +138,10 @@ final class BitReserve
    public int hget1bit()
    {   	  
 	  totbit++;	  
-	  int val = buf[buf_byte_idx];
-	  buf_byte_idx = (buf_byte_idx+1) & BUFSIZE_MASK;
-      return val;
-   }
-   
-   /**
-    * Retrieves bits from the reserve.     
-    */
-/*   
-   public int readBits(int[] out, int len)
-   {
-		if (buf_bit_idx == 0)
-		{
-		   buf_bit_idx = 8;
-		   buf_byte_idx++;
-		   current = buf[buf_byte_idx & BUFSIZE_MASK];
-		}      
-		
-		
-		
-		// save total number of bits returned
-		len = buf_bit_idx;
-		buf_bit_idx = 0;
-		  
-		int b = current;
-		int count = len-1;
-		  
-		while (count >= 0)
-		{
-		    out[count--] = (b & 0x1);
-		    b >>>= 1;
-		}
-	  
-		totbit += len;
-		return len;
+	  int pos = buf_bit_idx;
+	  buf_bit_idx = (pos+1) & BITSIZE_MASK;
+      return (buf[pos >>> 3] >>> (7 - (pos & 7))) & 1;
    }
-  */
    
    /**
     * Write 8 bits into the bit stream.
@@ -182,20 +149,10 @@ final class BitReserve
    public void hputbuf(int val)
    {   	  
 	   int ofs = offset;
-	   buf[ofs++] = val & 0x80;
-	   buf[ofs++] = val & 0x40;
-	   buf[ofs++] = val & 0x20;
-	   buf[ofs++] = val & 0x10;
-	   buf[ofs++] = val & 0x08;
-	   buf[ofs++] = val & 0x04;
-	   buf[ofs++] = val & 0x02;
-	   buf[ofs++] = val & 0x01;
-	   
-	   if (ofs==BUFSIZE)
-			offset = 0;
-	   else
-			offset = ofs;
-	   
+	   buf[ofs] = (byte) val;
+	   if (ofs < 8)
+		   buf[BUFSIZE+ofs] = (byte) val;
+	   offset = (ofs+1) & BUFSIZE_MASK;
    }
  
    /**
@@ -204,9 +161,7 @@ final class BitReserve
    public void rewindNbits(int N)
    {
  	  totbit -= N;	  	  
-	  buf_byte_idx -= N;
-	  if (buf_byte_idx<0)
-		  buf_byte_idx += BUFSIZE;
+	  buf_bit_idx = (buf_bit_idx-N) & BITSIZE_MASK;
    }
 	
    /**
@@ -214,10 +169,6 @@ final class BitReserve
 	*/
    public void rewindNbytes(int N)
    {
-      int bits = (N << 3);
-	  totbit -= bits;
-	  buf_byte_idx -= bits;	  
-	  if (buf_byte_idx<0)
-		  buf_byte_idx += BUFSIZE;
+      rewindNbits(N << 3);
    }
 }
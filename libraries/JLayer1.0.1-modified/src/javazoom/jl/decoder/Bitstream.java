@@ -40,6 +40,8 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 
 /**
@@ -123,8 +125,29 @@ public final class Bitstream implements BitstreamErrors
      0x00001FFF, 0x00003FFF, 0x00007FFF, 0x0000FFFF,
      0x0001FFFF };
 
+    /**
+     * The input stream, or null if the input is mapped.
+     */
     private final PushbackInputStream	source;
 
+    /**
+     * The mapped input file, or null if the input is a stream.
+     * Its bytes are read at absolute positions, the current one
+     * being <code>position</code>.
+     */
+    private final ByteBuffer		mapped;
+
+    /**
+     * The channel of the mapped file, or null.
+     */
+    private final FileChannel		channel;
+
+    /**
+     * The position in the mapped file of the first byte of the
+     * current frame after the header.
+     */
+    private int						frame_start;
+
     private final Header			header = new Header();
 
     private final byte				syncbuf[] = new byte[4];
@@ -152,12 +175,59 @@ public final class Bitstream implements BitstreamErrors
         firstframe = true;
         //source = new PushbackInputStream(in, 1024);
         source = new PushbackInputStream(in, BUFFER_INT_SIZE*4);
+        mapped = null;
+        channel = null;
 
         closeFrame();
         //current_frame_number = -1;
         //last_frame_number = -1;
     }
 
+    /**
+     * Construct a Bitstream that reads data from a file.
+     * The file is mapped into memory from the current position of
+     * the channel to its end, but at most 2 GiB of it, and frames
+     * are read from the mapping without copying them to a stream
+     * buffer. The position of the channel is not changed, but
+     * close() closes the channel.
+     *
+     * @param ch	The channel of the file to read from.
+     */
+    public Bitstream(FileChannel ch) throws IOException
+    {
+        if (ch==null) throw new NullPointerException("ch");
+        final long start = ch.position();
+        mapped = ch.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(Math.max(ch.size() - start, 0), Integer.MAX_VALUE));
+        channel = ch;
+        source = null;
+
+        // the ID3v2 tag is parsed from a copy of its first 10 bytes.
+        byte[] id3header = new byte[Math.min(10, mapped.limit())];
+        copyMapped(0, id3header, id3header.length);
+        int size = readID3v2Header(new ByteArrayInputStream(id3header));
+        header_pos = size;
+        if (size > 0)
+        {
+            rawid3v2 = new byte[Math.min(size, mapped.limit())];
+            copyMapped(0, rawid3v2, rawid3v2.length);
+        }
+        this.position = Math.min(header_pos, mapped.limit());
+
+        firstframe = true;
+        closeFrame();
+    }
+
+    /**
+     * Copies len bytes at the specified position of the mapped file.
+     */
+    private void copyMapped(int pos, byte[] b, int len)
+    {
+        ByteBuffer in = mapped.duplicate();
+        in.position(pos);
+        in.get(b, 0, len);
+    }
+
     /**
      * Return position of the first audio header.
      * @return size of ID3v2 tag frames.
@@ -253,7 +323,10 @@ public final class Bitstream implements BitstreamErrors
     {
         try
         {
-            source.close();
+            if (mapped!=null)
+                channel.close();
+            else
+                source.close();
         }
         catch (IOException ex)
         {
@@ -275,6 +348,8 @@ public final class Bitstream implements BitstreamErrors
             // E.B, Parse VBR (if any) first frame.
             if (firstframe == true)
             {
+                if (mapped!=null)
+                    copyMapped(frame_start, frame_bytes, framesize);
                 result.parseVBR(frame_bytes);
                 firstframe = false;
             }
@@ -342,6 +417,11 @@ public final class Bitstream implements BitstreamErrors
     {
         if (wordpointer==-1 && bitindex==-1 && (framesize>0))
         {
+            if (mapped!=null)
+            {
+                position = frame_start;
+                return;
+            }
             try
             {
                 source.unread(frame_bytes, 0, framesize);
@@ -364,6 +444,42 @@ public final class Bitstream implements BitstreamErrors
         bitindex = -1;
     }
 
+    /**
+     * Skips bytes of the input without reading them. This allows to
+     * skip frames whose headers have been parsed elsewhere. Must only be
+     * called between frames, that is after closeFrame().
+     * @param n the number of bytes to skip
+     * @throws BitstreamException if the bytes cannot be skipped
+     */
+    public void skipBytes(long n) throws BitstreamException
+    {
+        if (mapped!=null)
+        {
+            long skipped = Math.min(n, mapped.limit() - position);
+            position += skipped;
+            if (skipped < n)
+                throw newBitstreamException(STREAM_EOF, null);
+            return;
+        }
+        try
+        {
+            while (n > 0)
+            {
+                long skipped = source.skip(n);
+                if (skipped <= 0)
+                {
+                    throw newBitstreamException(STREAM_EOF, null);
+                }
+                position += skipped;
+                n -= skipped;
+            }
+        }
+        catch (IOException ex)
+        {
+            throw newBitstreamException(STREAM_ERROR, ex);
+        }
+    }
+
     /**
      * Determines if the next 4 bytes of the stream represent a
      * frame header.
@@ -375,7 +491,8 @@ public final class Bitstream implements BitstreamErrors
 
         try
         {
-            source.unread(syncbuf, 0, read);
+            if (mapped==null)
+                source.unread(syncbuf, 0, read);
             position -= read;
         }
         catch (IOException ex)
@@ -497,7 +614,15 @@ public final class Bitstream implements BitstreamErrors
     int read_frame_data(int bytesize) throws BitstreamException
     {
         int	numread = 0;
-        numread = readFully(frame_bytes, 0, bytesize);
+        if (mapped!=null)
+        {
+            // the frame is read from the mapping by parse_frame().
+            frame_start = (int)position;
+            numread = (int)Math.min(bytesize, mapped.limit() - position);
+            position += numread;
+        }
+        else
+            numread = readFully(frame_bytes, 0, bytesize);
         framesize = bytesize;
         wordpointer = -1;
         bitindex = -1;
@@ -514,6 +639,24 @@ public final class Bitstream implements BitstreamErrors
     byte[] byteread = frame_bytes;
     int bytesize = framesize;
 
+    if (mapped!=null)
+    {
+        // whole words are read as such, the bytes after the frame are 0.
+        int k;
+        for (k=0; k+4<=bytesize; k+=4)
+            framebuffer[b++] = mapped.getInt(frame_start + k);
+        if (k<bytesize)
+        {
+            int convert = 0;
+            for (int i=0; i<4; i++)
+                convert = (convert << 8) | ((k+i<bytesize) ? mapped.get(frame_start + k + i) & 0xFF : 0);
+            framebuffer[b++] = convert;
+        }
+        wordpointer = 0;
+        bitindex = 0;
+        return;
+    }
+
     // Check ID3v1 TAG (True only if last frame).
     //for (int t=0;t<(byteread.length)-2;t++)
     //{
@@ -615,7 +758,6 @@ public final class Bitstream implements BitstreamErrors
             while (len > 0)
             {
                 int bytesread = source.read(b, offs, len);
-                position += bytesread;
                 if (bytesread == -1)
                 {
                     while (len-->0)
@@ -625,6 +767,7 @@ public final class Bitstream implements BitstreamErrors
                     break;
                     //throw newBitstreamException(UNEXPECTED_EOF, new EOFException());
                 }
+                position += bytesread;
                 nRead = nRead + bytesread;
                 offs += bytesread;
                 len -= bytesread;
@@ -645,16 +788,24 @@ public final class Bitstream implements BitstreamErrors
         throws BitstreamException
     {
         int totalBytesRead = 0;
+        if (mapped!=null)
+        {
+            totalBytesRead = (int)Math.min(len, mapped.limit() - position);
+            for (int i=0; i<totalBytesRead; i++)
+                b[offs+i] = mapped.get((int)position + i);
+            position += totalBytesRead;
+            return totalBytesRead;
+        }
         try
         {
             while (len > 0)
             {
                 int bytesread = source.read(b, offs, len);
-                position += bytesread;
                 if (bytesread == -1)
                 {
                     break;
                 }
+                position += bytesread;
                 totalBytesRead += bytesread;
                 offs += bytesread;
                 len -= bytesread;
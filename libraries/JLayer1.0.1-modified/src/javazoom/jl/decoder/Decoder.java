@@ -151,6 +151,59 @@ public class Decoder implements DecoderErrors
 		return output;	
 	}
 	
+	/**
+	 * Decodes one layer III frame from an MPEG audio bitstream
+	 * and estimates the energy of each of its granules from the
+	 * global gain, the scale factors and the huffman decoded
+	 * spectral values. The energy of a granule is the sum of the 
+	 * squares of its spectral values, averaged over the channels.
+	 * 
+	 * @param header		The header describing the frame to decode.
+	 * @param bitstream		The bistream that provides the bits for te body of the frame. 
+	 * @param energy		Receives the energy of each granule. Must 
+	 *						have room for 2 granules.
+	 * @param synthesize	Whether to decode the samples of the frame to
+	 *						the output buffer. If false, dequantization, 
+	 *						IMDCT and polyphase synthesis are skipped, and
+	 *						the output buffer is left empty.
+	 * 
+	 * @return The number of granules of the frame, 2 for MPEG 1 and 1
+	 *		for MPEG 2 LSF, or 0 if the frame could not be decoded because
+	 *		its main data begins in a frame that has not been decoded.
+	 */
+	public int decodeFrameEnergy(Header header, Bitstream stream, 
+		float[] energy, boolean synthesize)
+		throws DecoderException
+	{
+		if (!initialized)
+		{
+			initialize(header);
+		}
+		
+		int layer = header.layer();
+		if (layer!=3)
+		{
+			throw newDecoderException(UNSUPPORTED_LAYER, null);
+		}
+		
+		output.clear_buffer();
+		
+		LayerIIIDecoder decoder = (LayerIIIDecoder)retrieveDecoder(header, stream, layer);
+		
+		int granules;
+		if (synthesize)
+		{
+			granules = decoder.decode(energy);
+			output.write_buffer(1);
+		}
+		else
+		{
+			granules = decoder.decode_energy(energy);
+		}
+		
+		return granules;
+	}
+	
 	/**
 	 * Changes the output buffer. This will take effect the next time
 	 * decodeFrame() is called. 
@@ -228,7 +281,7 @@ public class Decoder implements DecoderErrors
 			{
 				l3decoder = new LayerIIIDecoder(stream, 
 					header, filter1, filter2, 
-					output, OutputChannels.BOTH_CHANNELS);
+					output, params.getOutputChannels().getChannelsOutputCode());
 			}						
 			
 			decoder = l3decoder;
@@ -280,14 +333,23 @@ public class Decoder implements DecoderErrors
 			output = new SampleBuffer(header.frequency(), channels);
 		
 		float[] factors = equalizer.getBandFactors();
+		int quality = params.getQuality();
 		filter1 = new SynthesisFilter(0, scalefactor, factors);
+		filter1.setQuality(quality);
    		
 		// REVIEW: allow mono output for stereo
 		if (channels==2) 
+		{
 			filter2 = new SynthesisFilter(1, scalefactor, factors);
+			filter2.setQuality(quality);
+		}
+
+		// only the layer III decoder honours the output channels
+		if (channels==2 && layer==3)
+			channels = params.getOutputChannels().getChannelCount();
 
 		outputChannels = channels;
-		outputFrequency = header.frequency();
+		outputFrequency = header.frequency() / quality;
 		
 		initialized = true;
 	}
@@ -300,8 +362,28 @@ public class Decoder implements DecoderErrors
 	 */
 	public static class Params implements Cloneable
 	{
+		/**
+		 * Synthesizes all subbands at the sample frequency of the
+		 * stream.
+		 */
+		public static final int	HIGH_QUALITY = SynthesisFilter.HIGH_QUALITY;
+		
+		/**
+		 * Synthesizes the lower half of the subbands at half the
+		 * sample frequency of the stream.
+		 */
+		public static final int	MEDIUM_QUALITY = SynthesisFilter.MEDIUM_QUALITY;
+		
+		/**
+		 * Synthesizes the lower quarter of the subbands at a quarter
+		 * of the sample frequency of the stream.
+		 */
+		public static final int	LOW_QUALITY = SynthesisFilter.LOW_QUALITY;
+		
 		private OutputChannels	outputChannels = OutputChannels.BOTH;
 		
+		private int				quality = HIGH_QUALITY;
+		
 		private Equalizer		equalizer = new Equalizer();
 		
 		public Params()
@@ -328,11 +410,53 @@ public class Decoder implements DecoderErrors
 			outputChannels = out;
 		}
 		
+		/**
+		 * Retrieves the channels that the decoder will output. 
+		 * <p>
+		 * Only layer III frames are decoded to the selected channels, 
+		 * layer I and II frames are always decoded to both channels. 
+		 * If a single channel of a stereo layer III stream is selected, 
+		 * the other channel is not transformed to samples. 
+		 * <code>OutputChannels.DOWNMIX</code> averages the 
+		 * spectral values of both channels right after stereo 
+		 * processing, so that antialiasing, IMDCT and polyphase 
+		 * synthesis run for a single channel only. If the channels
+		 * of a granule use different block types, the downmix follows
+		 * the block type of the left channel. This mono decoding
+		 * halves the cost of the most expensive decoding stages.
+		 * 
+		 * @return	The output channels, <code>OutputChannels.BOTH</code>
+		 *			by default.
+		 */
 		public OutputChannels getOutputChannels()
 		{
 			return outputChannels;
 		}
 		
+		/**
+		 * Sets the output quality. At MEDIUM_QUALITY and LOW_QUALITY,
+		 * the decoder outputs 1/2 or 1/4 of the samples per frame 
+		 * at 1/2 or 1/4 of the sample frequency of the stream, 
+		 * and the bandwidth of the output is reduced accordingly.
+		 * The layer III decoder skips the IMDCT of the subbands 
+		 * that are not synthesized.
+		 * 
+		 * @param quality0	HIGH_QUALITY, MEDIUM_QUALITY or LOW_QUALITY.
+		 */
+		public void setQuality(int quality0)
+		{
+			if (quality0!=HIGH_QUALITY && quality0!=MEDIUM_QUALITY
+				&& quality0!=LOW_QUALITY)
+				throw new IllegalArgumentException("quality");
+			
+			quality = quality0;
+		}
+		
+		public int getQuality()
+		{
+			return quality;
+		}
+		
 		/**
 		 * Retrieves the equalizer settings that the decoder's equalizer
 		 * will be initialized from.
@@ -0,0 +1,111 @@
+/*
+ * 10/17/26		Initial version.
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+
+package javazoom.jl.decoder;
+
+/**
+ * Alternative implementations of the float arithmetic of the polyphase
+ * synthesis and the alias reduction.
+ * <p>
+ * The scalar code of <code>SynthesisFilter</code> and
+ * <code>LayerIIIDecoder</code> is used unless a kernel is available.
+ * The only kernel is <code>VectorKernel</code>, which uses the
+ * incubating Vector API of JDK 16 and later. It is compiled from
+ * the src-vector directory, and it is selected at startup if its
+ * class can be loaded, that is if the JVM has been started with
+ * <code>--add-modules jdk.incubator.vector</code>, and if the processor
+ * has vectors of at least 8 floats. The system property
+ * <code>javazoom.jl.decoder.vector=false</code> disables it.
+ * <p>
+ * A kernel performs the same float operations in the same order
+ * as the scalar code, so that its output is bit-exact.
+ */
+abstract class FloatKernel
+{
+	private static final FloatKernel	instance = load();
+
+	/**
+	 * Retrieves the kernel selected at startup.
+	 *
+	 * @return the kernel, or null if the scalar code is to be used.
+	 */
+	static FloatKernel getInstance()
+	{
+		return instance;
+	}
+
+	private static FloatKernel load()
+	{
+		if ("false".equals(System.getProperty("javazoom.jl.decoder.vector")))
+			return null;
+
+		try
+		{
+			Class<?> c = Class.forName("javazoom.jl.decoder.VectorKernel");
+			FloatKernel kernel = c.asSubclass(FloatKernel.class).getDeclaredConstructor().newInstance();
+			return kernel.isSupported() ? kernel : null;
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			// not compiled
+			return null;
+		}
+		catch (LinkageError ex)
+		{
+			// module not present or unsupported JVM
+			return null;
+		}
+	}
+
+	/**
+	 * Whether this kernel is faster than the scalar code on this JVM.
+	 */
+	abstract boolean isSupported();
+
+	/**
+	 * Computes n PCM samples of the polyphase synthesis, see
+	 * <code>SynthesisFilter.compute_pcm_samples()</code>. Sample i is
+	 * the sum over k of v[16*step*i + ((pos - k) &amp; 15)] * window[k][i],
+	 * taken in the order of k and multiplied by scalefactor.
+	 *
+	 * @param v				the actual v1 or v2 array.
+	 * @param pos			the actual write position, 0-15.
+	 * @param step			the quality of the synthesis filter.
+	 * @param window		the 16 rows of the synthesis window for the
+	 *						n output samples.
+	 * @param n				the number of samples, a multiple of 8.
+	 * @param scalefactor	the scale of the samples.
+	 * @param out			receives the samples.
+	 */
+	abstract void window(float[] v, int pos, int step, float[][] window,
+		int n, float scalefactor, float[] out);
+
+	/**
+	 * Performs the 8 alias reduction butterflies between each pair of
+	 * neighbouring subbands below sb18lim/18, see
+	 * <code>LayerIIIDecoder.antialias()</code>.
+	 *
+	 * @param x				the 576 spectral values of a granule.
+	 * @param sb18lim		18 times the index of the last subband whose
+	 *						upper neighbour is antialiased.
+	 * @param cs			the 8 butterfly coefficients cs.
+	 * @param ca			the 8 butterfly coefficients ca.
+	 */
+	abstract void antialias(float[] x, int sb18lim, float[] cs, float[] ca);
+}
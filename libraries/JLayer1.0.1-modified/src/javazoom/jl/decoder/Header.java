@@ -540,6 +540,10 @@ public final class Header
 	}
 
 
+	private static final float ms_per_frame_array[][] = {{8.707483f,  8.0f, 12.0f},
+														 {26.12245f, 24.0f, 36.0f},
+														 {26.12245f, 24.0f, 36.0f}};
+
 	/**
 	 * Returns ms/frame.
 	 * @return milliseconds per frame
@@ -554,9 +558,6 @@ public final class Header
 		}
 		else
 		{
-			float ms_per_frame_array[][] = {{8.707483f,  8.0f, 12.0f},
-											{26.12245f, 24.0f, 36.0f},
-											{26.12245f, 24.0f, 36.0f}};
 			return(ms_per_frame_array[h_layer-1][h_sample_frequency]);
 		}
 	}
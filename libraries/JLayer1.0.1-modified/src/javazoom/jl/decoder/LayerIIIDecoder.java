@@ -41,8 +41,6 @@ package javazoom.jl.decoder;
  */
 final class LayerIIIDecoder implements FrameDecoder
 {
-	final double d43 = (4.0/3.0);
-	
 	public int[]				scalefac_buffer;
 
 	// MDM: removed, as this wasn't being used.
@@ -223,6 +221,19 @@ final class LayerIIIDecoder implements FrameDecoder
     * Decode one frame, filling the buffer with the output samples.
 	*/
 
+   // the kernel for antialias(), or null.
+	private FloatKernel kernel = FloatKernel.getInstance();
+
+   /**
+    * Sets the kernel for the alias reduction.
+	*
+	* @param kernel0	the kernel, or null to use the scalar code.
+	*/
+	void setKernel(FloatKernel kernel0)
+	{
+		kernel = kernel0;
+	}
+
    // subband samples are buffered and passed to the
    // SynthesisFilter in one go.
 	private float[] samples1 = new float[32];
@@ -230,43 +241,29 @@ final class LayerIIIDecoder implements FrameDecoder
 
 	public void decode()
 	{
-		int nSlots = header.slots();
-	    int flush_main;
-	    int gr, ch, ss, sb, sb18;
-	    int main_data_end;
-		int bytes_to_discard;
-	    int i;
-
-		get_side_info();
-
-	    for (i=0; i<nSlots; i++)
-	    	br.hputbuf(stream.get_bits(8));
-
-	    main_data_end = br.hsstell() >>> 3; // of previous frame
-
-	    if ((flush_main = (br.hsstell() & 7)) != 0) {
-	         br.hgetbits(8 - flush_main);
-				main_data_end++;
-		 }
-
-		 bytes_to_discard = frame_start - main_data_end
-								  - si.main_data_begin;
-
-		 frame_start += nSlots;
-
-	    if (bytes_to_discard < 0)
-				return;
+		decode(null);
+	}
 
-		 if (main_data_end > 4096) {
-				frame_start -= 4096;
-				br.rewindNbytes(4096);
-		 }
+	/**
+	 * Decode one frame, filling the buffer with the output samples
+	 * and estimating the energy of each granule.
+	 *
+	 * @param energy	receives the energy of each granule, see
+	 *					decode_energy(), may be null.
+	 * @return the number of granules, or 0 if the main data of the
+	 *		   frame was not available.
+	 */
+	public int decode(float[] energy)
+	{
+	    int gr, ch, ss, sb, sb18;
+	    double e;
 
-		 for (; bytes_to_discard > 0; bytes_to_discard--)
-	    		br.hgetbits(8);
+		if (!read_main_data())
+				return 0;
 
 		 for (gr=0;gr<max_gr;gr++) {
 
+				e = 0.0;
 				for (ch=0; ch<channels; ch++) {
 	           part2_start = br.hsstell();
 
@@ -277,9 +274,14 @@ final class LayerIIIDecoder implements FrameDecoder
 
 				  huffman_decode(ch, gr);
 				  // System.out.println("CheckSum HuffMan = " + CheckSumHuff);
+				  if (energy != null)
+					  e += granule_energy(ch, gr);
 				  dequantize_sample(ro[ch], ch, gr);
 				}
 
+				if (energy != null)
+					energy[gr] = (float) (e / channels);
+
 	         stereo(gr);
 
 	         if ((which_channels == OutputChannels.DOWNMIX_CHANNELS) && (channels > 1))
@@ -344,6 +346,93 @@ final class LayerIIIDecoder implements FrameDecoder
   	        //{
   	        //}
 
+  	        return max_gr;
+	}
+
+	/**
+	 * Decode the scale factors and the huffman codes of one frame and
+	 * estimate the energy of each granule from them. This skips
+	 * dequantization, stereo processing, IMDCT and polyphase synthesis
+	 * and does not write any samples to the buffer.
+	 *
+	 * @param energy	receives the energy of each granule, that is
+	 *					the sum of the squares of its spectral values
+	 *					averaged over the channels.
+	 * @return the number of granules, or 0 if the main data of the
+	 *		   frame was not available.
+	 */
+	public int decode_energy(float[] energy)
+	{
+		int gr, ch;
+		double e;
+
+		if (!read_main_data())
+				return 0;
+
+		for (gr=0; gr<max_gr; gr++) {
+			e = 0.0;
+			for (ch=0; ch<channels; ch++) {
+				part2_start = br.hsstell();
+
+				if (header.version() == Header.MPEG1)
+					get_scale_factors(ch, gr);
+				else  // MPEG-2 LSF, SZD: MPEG-2.5 LSF
+					get_LSF_scale_factors(ch, gr);
+
+				huffman_decode(ch, gr);
+				e += granule_energy(ch, gr);
+			}
+			energy[gr] = (float) (e / channels);
+		}
+
+		return max_gr;
+	}
+
+	/**
+	 * Reads the side info and the main data of the current frame into
+	 * the bit reservoir and positions the reservoir at the beginning of
+	 * the main data of the frame.
+	 *
+	 * @return false if the main data of the frame begins in a frame that
+	 *		   has not been read.
+	 */
+	private boolean read_main_data()
+	{
+		int nSlots = header.slots();
+	    int flush_main;
+	    int main_data_end;
+		int bytes_to_discard;
+	    int i;
+
+		get_side_info();
+
+	    for (i=0; i<nSlots; i++)
+	    	br.hputbuf(stream.get_bits(8));
+
+	    main_data_end = br.hsstell() >>> 3; // of previous frame
+
+	    if ((flush_main = (br.hsstell() & 7)) != 0) {
+	         br.hgetbits(8 - flush_main);
+				main_data_end++;
+		 }
+
+		 bytes_to_discard = frame_start - main_data_end
+								  - si.main_data_begin;
+
+		 frame_start += nSlots;
+
+	    if (bytes_to_discard < 0)
+				return false;
+
+		 if (main_data_end > 4096) {
+				frame_start -= 4096;
+				br.rewindNbytes(4096);
+		 }
+
+		 for (; bytes_to_discard > 0; bytes_to_discard--)
+	    		br.hgetbits(8);
+
+		 return true;
 	}
 
     /**
@@ -842,6 +931,83 @@ final class LayerIIIDecoder implements FrameDecoder
    		is_1d[index] = 0;
 	}
 
+	/**
+	 * Estimates the energy of the spectral values of one channel
+	 * of one granule from the huffman decoded values in is_1d, the
+	 * scale factors and the global gain. Uses the same tables as
+	 * dequantize_sample() but applies the scaling per scale factor
+	 * band and the global gain only once.
+	 */
+	private double granule_energy(int ch, int gr)
+	{
+		gr_info_s gr_info = (si.ch[ch].gr[gr]);
+		int[] l = sfBandIndex[sfreq].l;
+		int[] s = sfBandIndex[sfreq].s;
+		int end = nonzero[ch];
+		int long_bands, first_short_band;
+		int cb, window, begin, width, idx;
+		float f;
+		double e = 0.0;
+
+		if ((gr_info.window_switching_flag != 0) && (gr_info.block_type == 2)) {
+			if (gr_info.mixed_block_flag != 0) {
+				long_bands = 8;
+				first_short_band = 3;
+			} else {
+				long_bands = 0;
+				first_short_band = 0;
+			}
+		} else {
+			long_bands = 22;
+			first_short_band = 13;
+		}
+
+		// LONG block types 0,1,3 & 1st 2 subbands of switched blocks
+		for (cb=0; cb<long_bands && l[cb]<end; cb++) {
+			idx = scalefac[ch].l[cb];
+			if (gr_info.preflag != 0)
+				idx += pretab[cb];
+			idx = idx << gr_info.scalefac_scale;
+			f = two_to_negative_half_pow[idx];
+			e += f * f * line_energy(l[cb], Math.min(l[cb+1], end));
+		}
+
+		// SHORT blocks, the three windows of a band are consecutive
+		for (cb=first_short_band; cb<13 && 3*s[cb]<end; cb++) {
+			width = s[cb+1] - s[cb];
+			begin = 3 * s[cb];
+			for (window=0; window<3; window++, begin+=width) {
+				idx = (scalefac[ch].s[window][cb] << gr_info.scalefac_scale)
+					+ (gr_info.subblock_gain[window] << 2);
+				f = two_to_negative_half_pow[idx];
+				e += f * f * line_energy(begin, Math.min(begin + width, end));
+			}
+		}
+
+		return e * Math.pow(2.0, 0.5 * (gr_info.global_gain - 210.0));
+	}
+
+	/**
+	 * Returns the sum of the squares of the unscaled spectral values
+	 * is_1d[from], ..., is_1d[to - 1].
+	 */
+	private double line_energy(int from, int to)
+	{
+		double e = 0.0;
+		float xr;
+		int abv;
+		for (int j=from; j<to; j++) {
+			abv = is_1d[j];
+			if (abv != 0) {
+				if (abv < 0)
+					abv = -abv;
+				xr = t_43[abv];
+				e += xr * xr;
+			}
+		}
+		return e;
+	}
+
 	/**
 	 *
 	 */
@@ -860,9 +1026,11 @@ final class LayerIIIDecoder implements FrameDecoder
 	}
 
 	/**
-	 *
+	 * Computes the spectral values of one channel of one granule from
+	 * the huffman decoded values in is_1d, the scale factors and the
+	 * global gain. All powers are taken from tables.
 	 */
-	private void dequantize_sample(float xr[][], int ch, int gr)
+	void dequantize_sample(float xr[][], int ch, int gr)
 	{
 		gr_info_s gr_info = (si.ch[ch].gr[gr]);
 		int  cb=0;
@@ -870,6 +1038,7 @@ final class LayerIIIDecoder implements FrameDecoder
 		int cb_begin = 0;
 		int cb_width = 0;
 		int  index=0, t_index, j;
+		int  quotien, reste;
 	   	float g_gain;
 	    float[][] xr_1d = xr;
 
@@ -889,41 +1058,27 @@ final class LayerIIIDecoder implements FrameDecoder
 
 	   // Compute overall (global) scaling.
 
-		g_gain = (float) Math.pow(2.0 , (0.25 * (gr_info.global_gain - 210.0)));
+		g_gain = global_gain_pow[gr_info.global_gain];
 
+		// Modif E.B 02/22/99, line j is xr_1d[quotien][reste]
+		quotien = reste = 0;
 	  	for (j=0; j<nonzero[ch]; j++)
 	  	{
-	  	    // Modif E.B 02/22/99
-            int reste = j % SSLIMIT;
-            int quotien = (int) ((j-reste)/SSLIMIT);
-	    	if (is_1d[j] == 0) xr_1d[quotien][reste] = 0.0f;
-	        else
-	        {
-	         int abv = is_1d[j];
-	         // Pow Array fix (11/17/04)
-	         if (abv < t_43.length)
-	         {
-				if (is_1d[j] > 0) xr_1d[quotien][reste] = g_gain * t_43[abv];
-				else
-				{
-					if (-abv < t_43.length) xr_1d[quotien][reste] = -g_gain * t_43[-abv];
-					else xr_1d[quotien][reste] = -g_gain * (float)Math.pow(-abv, d43);	
-				} 
-	         }
-	         else
-	         {
-				if (is_1d[j] > 0) xr_1d[quotien][reste] = g_gain * (float)Math.pow(abv, d43);
-				else xr_1d[quotien][reste] = -g_gain * (float)Math.pow(-abv, d43);	         	
-	         }
-	        }
+	  	    int abv = is_1d[j];
+	    	if (abv == 0) xr_1d[quotien][reste] = 0.0f;
+	    	else if (abv > 0) xr_1d[quotien][reste] = g_gain * t_43[abv];
+	    	else xr_1d[quotien][reste] = -g_gain * t_43[-abv];
+	    	if (++reste == SSLIMIT)
+	    	{
+	    		reste = 0;
+	    		quotien++;
+	    	}
 	   }
 
 	   // apply formula per block type
+	   quotien = reste = 0;
 	   for (j=0; j<nonzero[ch]; j++)
 	   {
-            // Modif E.B 02/22/99
-            int reste = j % SSLIMIT;
-            int quotien = (int) ((j-reste)/SSLIMIT);
 
 			if (index == next_cb_boundary)  { /* Adjust critical band boundary */
 	      	if ((gr_info.window_switching_flag != 0) && (gr_info.block_type == 2)) {
@@ -1005,16 +1160,26 @@ final class LayerIIIDecoder implements FrameDecoder
 	         xr_1d[quotien][reste] *= two_to_negative_half_pow[idx];
 			}
 	      index++;
+	      if (++reste == SSLIMIT)
+	      {
+	      	reste = 0;
+	      	quotien++;
+	      }
 		}
 
-	   for (j=nonzero[ch]; j<576; j++)
+	   // nonzero[ch] is negative if the count1 region of a damaged
+	   // granule ends before the scale factors
+	   j = Math.max(nonzero[ch], 0);
+	   quotien = j / SSLIMIT;
+	   reste = j - quotien * SSLIMIT;
+	   for (; j<576; j++)
 	   {
-            // Modif E.B 02/22/99
-            int reste = j % SSLIMIT;
-            int quotien = (int) ((j-reste)/SSLIMIT);
-            if(reste < 0) reste = 0;
-            if(quotien < 0) quotien = 0;
 	     	xr_1d[quotien][reste] = 0.0f;
+	     	if (++reste == SSLIMIT)
+	     	{
+	     		reste = 0;
+	     		quotien++;
+	     	}
 	   }
 
    	   return;
@@ -1420,6 +1585,11 @@ final class LayerIIIDecoder implements FrameDecoder
 			sb18lim = 558;
 	   }
 
+	   if (kernel != null) {
+		   kernel.antialias(out_1d, sb18lim, cs, ca);
+		   return;
+	   }
+
 	   for (sb18=0; sb18 < sb18lim; sb18+=18) {
 	      for (ss=0;ss<8;ss++) {
 	      	int src_idx1 = sb18 + 17 - ss;
@@ -1450,7 +1620,11 @@ final class LayerIIIDecoder implements FrameDecoder
 
 	   float[][] prvblk;
 
-	   for(sb18=0;sb18<576;sb18+=18)
+	   // the subbands that the synthesis filter ignores at reduced quality
+	   // are not transformed
+	   final int sb18lim = 18 * filter1.getSubbands();
+
+	   for(sb18=0;sb18<sb18lim;sb18+=18)
 	   {
 			bt = ((gr_info.window_switching_flag !=0 ) && (gr_info.mixed_block_flag !=0) &&
 					 (sb18 < 36)) ? 0 : gr_info.block_type;
@@ -1510,11 +1684,12 @@ final class LayerIIIDecoder implements FrameDecoder
 	}
 
     /**
-	 *
+	 * Averages the spectral values of both channels into the
+	 * left channel.
 	 */
 	private void do_downmix()
 	{
-		for (int sb=0; sb<SSLIMIT; sb++) {
+		for (int sb=0; sb<SBLIMIT; sb++) {
 	   	for (int ss=0; ss<SSLIMIT; ss+=3) {
 	      	lr[0][sb][ss]   = (lr[0][sb][ss]   + lr[1][sb][ss])   * 0.5f;
 	      	lr[0][sb][ss+1] = (lr[0][sb][ss+1] + lr[1][sb][ss+1]) * 0.5f;
@@ -1959,14 +2134,35 @@ final class LayerIIIDecoder implements FrameDecoder
 	};
 
 
+	/**
+	 * 2^(0.25 * (global_gain - 210)) for the 256 values of the
+	 * 8 bit global gain.
+	 */
+	public static final float global_gain_pow[] = create_global_gain_pow();
+
+	static private float[] create_global_gain_pow()
+	{
+		float[] pow = new float[256];
+
+		for (int i=0; i<256; i++)
+		{
+			pow[i] = (float) Math.pow(2.0 , (0.25 * (i - 210.0)));
+		}
+		return pow;
+	}
+
+	/**
+	 * i^(4/3) for all huffman decoded values, that is for up to
+	 * 15 plus 13 linbits.
+	 */
 	public static final float t_43[] = create_t_43();
 
 	static private float[] create_t_43()
 	{
-		float[] t43 = new float[8192];
+		float[] t43 = new float[15 + 8192];
 		final double d43 = (4.0/3.0);
 
-		for (int i=0; i<8192; i++)
+		for (int i=0; i<t43.length; i++)
 		{
 			t43[i] = (float)Math.pow(i, d43);
 		}
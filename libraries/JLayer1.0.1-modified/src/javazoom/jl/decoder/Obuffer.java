@@ -52,18 +52,42 @@ public abstract class Obuffer
    */
 	public void appendSamples(int channel, float[] f)
 	{
-	    short s;
-	    for (int i=0; i<32;)
+		appendBlock(channel, f, 0, 32);
+	}
+
+  /**
+   * Accepts the first n of the specified PCM samples. 
+   */
+	public void appendSamples(int channel, float[] f, int n)
+	{
+		appendBlock(channel, f, 0, n);
+	}
+
+  /**
+   * Accepts len new PCM samples of a channel. This is how the
+   * synthesis filter delivers its output. The samples are the float
+   * values it computes, scaled to 16 bits but not clipped, so that a
+   * subclass that overrides this method receives them without loss.
+   * The default implementation clips each sample and passes it to
+   * append().
+   *
+   * @param channel	the channel of the samples.
+   * @param f		the samples.
+   * @param off		the index of the first sample in f.
+   * @param len		the number of samples.
+   */
+	public void appendBlock(int channel, float[] f, int off, int len)
+	{
+	    for (int i=off; i<off+len; i++)
 	    {
-		  	s = clip(f[i++]);
-			append(channel, s); 
+			append(channel, clip(f[i])); 
 	    }
 	}
 
   /**
    * Clip Sample to 16 Bits
    */
-  private final short clip(float sample)
+  protected static final short clip(float sample)
   {
 	return ((sample > 32767.0f) ? 32767 :
            ((sample < -32768.0f) ? -32768 :
@@ -80,13 +80,13 @@ public class SampleBuffer extends Obuffer
 	bufferp[channel] += channels;	  	
   }
   
-	public void appendSamples(int channel, float[] f)
+	public void appendBlock(int channel, float[] f, int off, int len)
 	{
 	    int pos = bufferp[channel];
 		
 		short s;
 		float fs;
-	    for (int i=0; i<32;)
+	    for (int i=off; i<off+len;)
 	    {
 		  	fs = f[i++];
 			fs = (fs>32767.0f ? 32767.0f 
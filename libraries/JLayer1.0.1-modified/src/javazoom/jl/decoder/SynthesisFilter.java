@@ -51,17 +51,50 @@ final class SynthesisFilter
 	/**
 	 * Quality value for controlling CPU usage/quality tradeoff. 
 	 */
-	/*
 	private int				quality;
 	
+	/**
+	 * The distance in v1 and v2 between the values of consecutive 
+	 * output samples.
+	 */
 	private int				v_inc;
 	
+	/**
+	 * The number of subbands that are synthesized.
+	 */
+	private int				subbands;
+	
+	/**
+	 * The rows of d16 that yield the output samples.
+	 */
+	private float[][]		d16q;
+	
+	/**
+	 * The columns of d16q, for the kernel.
+	 */
+	private float[][]		d16qT;
 	
+	/**
+	 * The kernel that computes the PCM samples, or null.
+	 */
+	private FloatKernel		kernel = FloatKernel.getInstance();
 	
+	/**
+	 * Synthesizes all 32 subbands to 32 PCM samples.
+	 */
 	public static final int	HIGH_QUALITY = 1;
+	
+	/**
+	 * Synthesizes the lower 16 subbands to 16 PCM samples
+	 * at half the sample frequency.
+	 */
 	public static final int MEDIUM_QUALITY = 2;
+	
+	/**
+	 * Synthesizes the lower 8 subbands to 8 PCM samples
+	 * at a quarter of the sample frequency.
+	 */
 	public static final int LOW_QUALITY = 4;
-	*/
 	
   /**
    * Contructor.
@@ -82,7 +115,7 @@ final class SynthesisFilter
      channel = channelnumber;
 	 scalefactor = factor;
 	 setEQ(eq);	 
-	 //setQuality(HIGH_QUALITY);
+	 setQuality(HIGH_QUALITY);
 	 
      reset();
   }
@@ -103,8 +136,15 @@ final class SynthesisFilter
 	  
   }
   
-	/*
-	private void setQuality(int quality0)
+	/**
+	 * Sets the output quality. At reduced quality, the subbands
+	 * above 32/quality are ignored and only every quality-th
+	 * PCM sample is computed, so that 32/quality samples are
+	 * output per 32 subband samples.
+	 * 
+	 * @param quality0	HIGH_QUALITY, MEDIUM_QUALITY or LOW_QUALITY.
+	 */
+	public void setQuality(int quality0)
 	{
 	  	switch (quality0)
 	  	{		
@@ -113,6 +153,15 @@ final class SynthesisFilter
 		case LOW_QUALITY:						  
 			v_inc = 16 * quality0;			
 			quality = quality0;
+			subbands = 32 / quality0;
+			d16q = new float[subbands][];
+			d16qT = new float[16][subbands];
+			for (int i=0; i<subbands; i++)
+			{
+				d16q[i] = d16[i * quality0];
+				for (int k=0; k<16; k++)
+					d16qT[k][i] = d16q[i][k];
+			}
 			break;	
 		default :
 			throw new IllegalArgumentException("Unknown quality value");
@@ -123,7 +172,26 @@ final class SynthesisFilter
 	{
 		return quality;	
 	}
-	*/
+	
+	/**
+	 * Sets the kernel that computes the PCM samples. 
+	 * 
+	 * @param kernel0	the kernel, or null to use the scalar code.
+	 */
+	void setKernel(FloatKernel kernel0)
+	{
+		kernel = kernel0;
+	}
+	
+	/**
+	 * Retrieves the number of subbands that are synthesized, 
+	 * which is also the number of PCM samples output per
+	 * 32 subband samples.
+	 */
+	public int getSubbands()
+	{
+		return subbands;	
+	}
   
   /**
    * Reset the synthesis filter.
@@ -155,12 +223,13 @@ final class SynthesisFilter
    */
   public void input_sample(float sample, int subbandnumber)
   {	 	 		  
-	  samples[subbandnumber] = eq[subbandnumber]*sample;
+	  if (subbandnumber < subbands)
+		  samples[subbandnumber] = eq[subbandnumber]*sample;
   }
 
   public void input_samples(float[] s)
   {
-	  for (int i=31; i>=0; i--)
+	  for (int i=subbands-1; i>=0; i--)
 	  {		
 		 samples[i] = s[i]*eq[i];
 	  }
@@ -859,15 +928,17 @@ final class SynthesisFilter
   private void compute_pcm_samples0(Obuffer buffer)
   {
 	final float[] vp = actual_v;	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
 		float pcm_sample;
-		final float[] dp = d16[i];
+		final float[] dp = window[i];
 		pcm_sample = (float)(((vp[0 + dvp] * dp[0]) +
 			(vp[15 + dvp] * dp[1]) +
 			(vp[14 + dvp] * dp[2]) +
@@ -888,21 +959,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 	} // for
   }
   
   private void compute_pcm_samples1(Obuffer buffer)
   {
 	final float[] vp = actual_v;	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[1 + dvp] * dp[0]) +
@@ -925,21 +998,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
          } // for
   }
     private void compute_pcm_samples2(Obuffer buffer)
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[2 + dvp] * dp[0]) +
@@ -962,7 +1037,7 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
 	}
 	
@@ -971,14 +1046,16 @@ final class SynthesisFilter
 	final float[] vp = actual_v;
 	
 	int idx = 0;
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[3 + dvp] * dp[0]) +
@@ -1001,7 +1078,7 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
 	  }
 			
@@ -1009,14 +1086,16 @@ final class SynthesisFilter
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[4 + dvp] * dp[0]) +
@@ -1039,7 +1118,7 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   
@@ -1047,14 +1126,16 @@ final class SynthesisFilter
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[5 + dvp] * dp[0]) +
@@ -1077,21 +1158,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   
   private void compute_pcm_samples6(Obuffer buffer)
   {
 	final float[] vp = actual_v;	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[6 + dvp] * dp[0]) +
@@ -1114,7 +1197,7 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   
@@ -1122,14 +1205,16 @@ final class SynthesisFilter
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[7 + dvp] * dp[0]) +
@@ -1152,21 +1237,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
 	}
   private void compute_pcm_samples8(Obuffer buffer)
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[8 + dvp] * dp[0]) +
@@ -1189,7 +1276,7 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   
@@ -1197,14 +1284,16 @@ final class SynthesisFilter
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[9 + dvp] * dp[0]) +
@@ -1227,21 +1316,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   
   private void compute_pcm_samples10(Obuffer buffer)
   {
 	final float[] vp = actual_v;	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[10 + dvp] * dp[0]) +
@@ -1264,21 +1355,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   private void compute_pcm_samples11(Obuffer buffer)
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[11 + dvp] * dp[0]) +
@@ -1301,20 +1394,22 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
     private void compute_pcm_samples12(Obuffer buffer)
   {
 	final float[] vp = actual_v;	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-			    final float[] dp = d16[i];
+			    final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[12 + dvp] * dp[0]) +
@@ -1337,21 +1432,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
 	}
   private void compute_pcm_samples13(Obuffer buffer)
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[13 + dvp] * dp[0]) +
@@ -1374,21 +1471,23 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   private void compute_pcm_samples14(Obuffer buffer)
   {
 	final float[] vp = actual_v;
 	
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
-				final float[] dp = d16[i];
+				final float[] dp = window[i];
 				float pcm_sample;
 
 				pcm_sample = (float)(((vp[14 + dvp] * dp[0]) +
@@ -1411,22 +1510,24 @@ final class SynthesisFilter
 
             tmpOut[i] = pcm_sample;
 			
-			dvp += 16;
+			dvp += inc;
 			} // for
   }
   private void compute_pcm_samples15(Obuffer buffer)
   {
 	final float[] vp = actual_v;
 		
-	//int inc = v_inc;
+	final int inc = v_inc;
+	final int n = subbands;
+	final float[][] window = d16q;
 	final float[] tmpOut = _tmpOut;
 	 int dvp =0;
 	
 			// fat chance of having this loop unroll
-			for( int i=0; i<32; i++)
+			for( int i=0; i<n; i++)
 			{
 				float pcm_sample;
-				final float dp[] = d16[i];
+				final float dp[] = window[i];
 				pcm_sample = (float)(((vp[15 + dvp] * dp[0]) +
 					(vp[14 + dvp] * dp[1]) +
 					(vp[13 + dvp] * dp[2]) +
@@ -1446,13 +1547,19 @@ final class SynthesisFilter
 					) * scalefactor);
 
             tmpOut[i] = pcm_sample;			
-			dvp += 16;
+			dvp += inc;
 			} // for
 		}
 	 	 	 	 
 private void compute_pcm_samples(Obuffer buffer)
 {
 	
+	if (kernel!=null)
+	{
+		kernel.window(actual_v, actual_write_pos, quality, d16qT, 
+			subbands, scalefactor, _tmpOut);
+	}
+	else
 	switch (actual_write_pos)
 	{
 	case 0: 
@@ -1507,41 +1614,13 @@ private void compute_pcm_samples(Obuffer buffer)
 		
 	if (buffer!=null)
 	{		
-		buffer.appendSamples(channel, _tmpOut);
+		buffer.appendBlock(channel, _tmpOut, 0, subbands);
 	}
-	 
-/*
-	 // MDM: I was considering putting in quality control for
-	 // low-spec CPUs, but the performance gain (about 10-15%) 
-	 // did not justify the considerable drop in audio quality.
-		switch (inc)
-		{
-		case 16:		 
-		    buffer.appendSamples(channel, tmpOut);
-		    break;
-		case 32:
-			for (int i=0; i<16; i++)
-			{
-				buffer.append(channel, (short)tmpOut[i]);
-				buffer.append(channel, (short)tmpOut[i]); 
-			}
-			break;			
-		case 64:
-			for (int i=0; i<8; i++)
-			{
-				buffer.append(channel, (short)tmpOut[i]);
-				buffer.append(channel, (short)tmpOut[i]);
-				buffer.append(channel, (short)tmpOut[i]);
-				buffer.append(channel, (short)tmpOut[i]); 
-			}
-			break;			
-	
-		}
-*/	 
   }
 
   /**
-   * Calculate 32 PCM samples and put the into the Obuffer-object.
+   * Calculate 32 PCM samples, or 32/quality at reduced quality,
+   * and put them into the Obuffer-object.
    */
 	
   public void calculate_pcm_samples(Obuffer buffer)
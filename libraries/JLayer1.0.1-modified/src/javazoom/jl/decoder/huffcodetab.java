@@ -46,6 +46,7 @@ final class huffcodetab
 {
   private static final int	 MXOFF=250;
   private static final int	 HTN=34;
+  private static final int	 LOOKUP_BITS=8;
   
   private char				 tablename0 = ' ';      /* string, containing table_description   */
   private char				 tablename1 = ' ';      /* string, containing table_description   */
@@ -60,6 +61,8 @@ final class huffcodetab
   private int[]   			 hlen=null;             /* pointer to array[xlen][ylen]		      */
   private int[][]			 val=null;		        /* decoder tree		    	              */
   private int 				 treelen;	            /* length of decoder tree  	              */
+  private int[]				 lookup=null;	        /* decoding table, see buildLookup()      */
+  private int				 lookbits;	            /* bits of the first decoding table step  */
 
   private static int ValTab0[][] = {
 	{0,0}	// dummy
@@ -437,6 +440,106 @@ final class huffcodetab
     hlen = HLEN;
     val = VAL;
     treelen = TREELEN;
+    if (treelen != 0)
+       buildLookup();
+  }
+
+  /**
+   * Builds the decoding table from the decoder tree.
+   * A codeword of up to lookbits bits is resolved by the entry of
+   * the next lookbits bits in the stream. The entry for the first
+   * lookbits bits of a longer codeword refers to an overflow subtable
+   * that is indexed with the bits that follow.
+   * An entry is (length &lt;&lt; 8 | value) for a codeword,
+   * ~(offset &lt;&lt; 5 | bits) for a subtable of 2^bits entries, and
+   * 0 for bits that do not start a codeword.
+   */
+  private void buildLookup()
+  {
+	 int[] codes = new int[treelen];
+	 int[] lens = new int[treelen];
+	 int[] values = new int[treelen];
+	 int n = collect(0, 0, 0, codes, lens, values, 0);
+
+	 int maxlen = 0;
+	 for (int i=0; i<n; i++)
+		 maxlen = Math.max(maxlen, lens[i]);
+	 if (maxlen > 24)
+		 return; // corrupt tree, keep walking it
+	 lookbits = Math.min(LOOKUP_BITS, maxlen);
+
+	 // size of the overflow subtable of each prefix
+	 int[] subbits = new int[1 << lookbits];
+	 for (int i=0; i<n; i++)
+	 {
+		 int rest = lens[i] - lookbits;
+		 if (rest > 0)
+		 {
+			 int prefix = codes[i] >>> rest;
+			 subbits[prefix] = Math.max(subbits[prefix], rest);
+		 }
+	 }
+	 int size = 1 << lookbits;
+	 for (int p=0; p<subbits.length; p++)
+		 if (subbits[p] != 0)
+			 size += 1 << subbits[p];
+
+	 int[] table = new int[size];
+	 int offset = 1 << lookbits;
+	 for (int p=0; p<subbits.length; p++)
+	 {
+		 if (subbits[p] != 0)
+		 {
+			 table[p] = ~(offset << 5 | subbits[p]);
+			 offset += 1 << subbits[p];
+		 }
+	 }
+	 for (int i=0; i<n; i++)
+	 {
+		 int entry = lens[i] << 8 | values[i];
+		 int rest = lens[i] - lookbits;
+		 int first, count;
+		 if (rest <= 0)
+		 {
+			 first = codes[i] << -rest;
+			 count = 1 << -rest;
+		 }
+		 else
+		 {
+			 int sub = ~table[codes[i] >>> rest];
+			 int bits = sub & 31;
+			 first = (sub >>> 5) + ((codes[i] & ((1 << rest) - 1)) << (bits - rest));
+			 count = 1 << (bits - rest);
+		 }
+		 for (int k=0; k<count; k++)
+			 table[first + k] = entry;
+	 }
+	 lookup = table;
+  }
+
+  /**
+   * Walks the decoder tree like huffman_decoder() and collects the
+   * codewords below point.
+   * @return the number of codewords collected so far.
+   */
+  private int collect(int point, int code, int len, int[] codes, int[] lens, int[] values, int n)
+  {
+	 if (val[point][0]==0)
+	 {
+		 codes[n] = code;
+		 lens[n] = len;
+		 values[n] = val[point][1];
+		 return n+1;
+	 }
+	 if (len == 32)
+		 return n; // huffman_decoder() gives up
+	 for (int bit=0; bit<2; bit++)
+	 {
+		 int p = point;
+		 while (val[p][bit] >= MXOFF) p += val[p][bit];
+		 n = collect(p + val[p][bit], (code << 1) | bit, len+1, codes, lens, values, n);
+	 }
+	 return n;
   }
 
   
@@ -474,39 +577,63 @@ final class huffcodetab
 	 int bitIndex = 0;
 	 
 	 int bits[] = bitbuf;*/
-   	 do 
-	 {
-	    if (h.val[point][0]==0)
-		{   /*end of tree*/
-		   x[0] = h.val[point][1] >>> 4;
-		   y[0] = h.val[point][1] & 0xf;
-		   error = 0;
-		   break;
- 	    }
+     /* Lookup in the decoding table. */
+     int[] table = h.lookup;
+     int entry = 0;
+     if (table != null)
+     {
+        entry = table[br.hpeekbits(h.lookbits)];
+        if (entry < 0)
+        {
+           int sub = ~entry;
+           int bits = sub & 31;
+           entry = table[(sub >>> 5) + (br.hpeekbits(h.lookbits + bits) & ((1 << bits) - 1))];
+        }
+     }
+     if (entry != 0)
+     {
+        br.hskipbits(entry >>> 8);
+        x[0] = (entry >>> 4) & 0xf;
+        y[0] = entry & 0xf;
+        error = 0;
+     }
+     else
+     {
+        /* Walk the decoder tree. */
+	   	 do 
+		 {
+		    if (h.val[point][0]==0)
+			{   /*end of tree*/
+			   x[0] = h.val[point][1] >>> 4;
+			   y[0] = h.val[point][1] & 0xf;
+			   error = 0;
+			   break;
+	 	    }
 	    
-		// hget1bit() is called thousands of times, and so needs to be
-		// ultra fast. 
-		/*
-		if (bitIndex==bitsAvailable)
-		{
-			bitsAvailable = br.readBits(bits, 32);			
-			bitIndex = 0;
-		}
-		*/
-		//if (bits[bitIndex++]!=0)
-		if (br.hget1bit()!=0)
-		{
-		   while (h.val[point][1] >= MXOFF) point += h.val[point][1];
-		   point += h.val[point][1];
-	    }
-	    else
-		{
-		   while (h.val[point][0] >= MXOFF) point += h.val[point][0];
-		   point += h.val[point][0];
-	    }
-	    level >>>= 1;
-		// MDM: ht[0] is always 0;
-	 } while ((level !=0 )  || (point < 0 /*ht[0].treelen*/) );
+			// hget1bit() is called thousands of times, and so needs to be
+			// ultra fast. 
+			/*
+			if (bitIndex==bitsAvailable)
+			{
+				bitsAvailable = br.readBits(bits, 32);			
+				bitIndex = 0;
+			}
+			*/
+			//if (bits[bitIndex++]!=0)
+			if (br.hget1bit()!=0)
+			{
+			   while (h.val[point][1] >= MXOFF) point += h.val[point][1];
+			   point += h.val[point][1];
+		    }
+		    else
+			{
+			   while (h.val[point][0] >= MXOFF) point += h.val[point][0];
+			   point += h.val[point][0];
+		    }
+		    level >>>= 1;
+			// MDM: ht[0] is always 0;
+		 } while ((level !=0 )  || (point < 0 /*ht[0].treelen*/) );
+     }
 		
 		// put back any bits not consumed
 	/*	
@@ -17,7 +17,11 @@
  *----------------------------------------------------------------------
  */
 
+import javazoom.jl.decoder.BitReserveTest;
 import javazoom.jl.decoder.BitstreamTest;
+import javazoom.jl.decoder.FloatKernelTest;
+import javazoom.jl.decoder.LayerIIIDecoderTest;
+import javazoom.jl.decoder.huffcodetabTest;
 import javazoom.jl.player.jlpTest;
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -31,7 +35,11 @@ public class AllTests
 	{
 		TestSuite suite = new TestSuite("Test for javazoom.jl.decoder");
 		//$JUnit-BEGIN$
+		suite.addTest(new TestSuite(BitReserveTest.class));
 		suite.addTest(new TestSuite(BitstreamTest.class));
+		suite.addTest(new TestSuite(FloatKernelTest.class));
+		suite.addTest(new TestSuite(LayerIIIDecoderTest.class));
+		suite.addTest(new TestSuite(huffcodetabTest.class));
 		suite.addTest(new TestSuite(jlpTest.class));
 		//$JUnit-END$
 		return suite;
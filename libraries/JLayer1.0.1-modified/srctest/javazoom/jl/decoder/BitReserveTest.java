@@ -0,0 +1,186 @@
+/*
+ * 10/17/26 : Initial version.
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+
+package javazoom.jl.decoder;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * BitReserve unit test.
+ * It compares the bits read from the reservoir with the bytes written
+ * to it, in particular where reading or rewinding crosses the end of
+ * the ring buffer.
+ */
+public class BitReserveTest extends TestCase
+{
+	/** the size of the ring buffer of BitReserve */
+	private static final int BUFSIZE = 4096;
+
+	private byte[] data = null;
+	private BitReserve br = null;
+
+	/** the number of bytes written to br */
+	private int written = 0;
+
+	/**
+	 * Constructor for BitReserveTest.
+	 * @param arg0
+	 */
+	public BitReserveTest(String arg0)
+	{
+		super(arg0);
+	}
+
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		data = new byte[4 * BUFSIZE];
+		new Random(15).nextBytes(data);
+		br = new BitReserve();
+		written = 0;
+	}
+
+	public void testWrapAround()
+	{
+		write(BUFSIZE);
+		skip(BUFSIZE * 8 - 13);
+		write(BUFSIZE / 2);
+		for (int n=1; n<=32; n++)
+		{
+			int pos = br.hsstell();
+			assertEquals("peek "+n, expected(pos, n), br.hpeekbits(n));
+			assertEquals("get "+n, expected(pos, n), br.hgetbits(n));
+			br.rewindNbits(n);
+		}
+		assertEquals(expected(BUFSIZE * 8 - 13, 32), br.hgetbits(32));
+		assertEquals(expected(BUFSIZE * 8 + 19, 32), br.hgetbits(32));
+		assertEquals(BUFSIZE * 8 + 51, br.hsstell());
+	}
+
+	public void testRewindAcrossEnd()
+	{
+		write(BUFSIZE);
+		skip(BUFSIZE * 8 - 40);
+		write(BUFSIZE / 2);
+		skip(100);
+		assertEquals(BUFSIZE * 8 + 60, br.hsstell());
+
+		br.rewindNbits(75);
+		assertEquals(BUFSIZE * 8 - 15, br.hsstell());
+		assertEquals(expected(BUFSIZE * 8 - 15, 30), br.hgetbits(30));
+
+		br.rewindNbytes(5);
+		assertEquals(BUFSIZE * 8 - 25, br.hsstell());
+		assertEquals(expected(BUFSIZE * 8 - 25, 32), br.hgetbits(32));
+
+		// back to the start of the buffer, then rewind across its end
+		skip(BUFSIZE * 8 + 64 - br.hsstell());
+		br.rewindNbytes(9);
+		assertEquals(BUFSIZE * 8 - 8, br.hsstell());
+		assertEquals(expected(BUFSIZE * 8 - 8, 24), br.hgetbits(24));
+	}
+
+	public void testGet1Bit()
+	{
+		write(BUFSIZE);
+		skip(BUFSIZE * 8 - 64);
+		write(BUFSIZE / 2);
+		for (int i=0; i<128; i++)
+		{
+			int pos = br.hsstell();
+			int bit = br.hget1bit();
+			assertTrue("bit "+pos+" is "+bit, bit == 0 || bit == 1);
+			assertEquals("bit "+pos, expected(pos, 1), bit);
+		}
+	}
+
+	/**
+	 * Reads, skips and rewinds at random and compares every result
+	 * with the data.
+	 */
+	public void testRandomAccess()
+	{
+		Random random = new Random(16);
+		int pos = 0;
+		while (pos < (data.length - 8) * 8)
+		{
+			write(Math.min(data.length, pos / 8 + BUFSIZE / 2) - written);
+			// the first bit that has not been overwritten
+			int oldest = Math.max(0, written - BUFSIZE) * 8;
+			int n = 1 + random.nextInt(32);
+			switch (random.nextInt(6))
+			{
+				case 0:
+					assertEquals("get at "+pos, expected(pos, n), br.hgetbits(n));
+					pos += n;
+					break;
+				case 1:
+					assertEquals("peek at "+pos, expected(pos, n), br.hpeekbits(n));
+					break;
+				case 2:
+					assertEquals("bit at "+pos, expected(pos, 1), br.hget1bit());
+					pos++;
+					break;
+				case 3:
+					br.hskipbits(n * 40);
+					pos += n * 40;
+					break;
+				case 4:
+					n = Math.min(pos - oldest, n * 10);
+					br.rewindNbits(n);
+					pos -= n;
+					break;
+				default:
+					n = Math.min((pos - oldest) / 8, n);
+					br.rewindNbytes(n);
+					pos -= n * 8;
+			}
+			assertEquals("position", pos, br.hsstell());
+		}
+	}
+
+	/** Writes the next n bytes of data. */
+	private void write(int n)
+	{
+		for (int i=0; i<n; i++)
+			br.hputbuf(data[written++] & 0xff);
+	}
+
+	/** Skips n bits and checks the position. */
+	private void skip(int n)
+	{
+		int pos = br.hsstell();
+		br.hskipbits(n);
+		assertEquals(pos + n, br.hsstell());
+	}
+
+	/** Returns the n bits of data at the bit position pos. */
+	private int expected(int pos, int n)
+	{
+		int result = 0;
+		for (int i=pos; i<pos+n; i++)
+			result = result << 1 | ((data[i >>> 3] >>> (7 - (i & 7))) & 1);
+		return result;
+	}
+}
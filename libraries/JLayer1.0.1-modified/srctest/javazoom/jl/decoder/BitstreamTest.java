@@ -152,4 +152,43 @@ public class BitstreamTest extends TestCase
 			assertTrue("IOException : "+e.getMessage(),false);
 		}		
 	}
+
+	/**
+	 * Reads test.mp3 from a memory mapping and from a stream, and
+	 * checks that both yield the same frames at the same positions.
+	 */
+	public void testMappedStream() throws Exception
+	{
+		FileInputStream mapin = new FileInputStream(filename);
+		try
+		{
+			Bitstream mapped = new Bitstream(mapin.getChannel());
+			InputStream id3in = in.getRawID3v2();
+			InputStream id3mapped = mapped.getRawID3v2();
+			assertEquals("ID3v2Size", id3in==null ? -1 : id3in.available(),
+				id3mapped==null ? -1 : id3mapped.available());
+			int frames = 0;
+			Header header = in.readFrame();
+			while (header!=null)
+			{
+				long position = in.getPosition();
+				int framesize = header.framesize;
+				Header mappedheader = mapped.readFrame();
+				assertNotNull("frame "+frames, mappedheader);
+				assertEquals("position "+frames, position, mapped.getPosition());
+				assertEquals("framesize "+frames, framesize, mappedheader.framesize);
+				for (int i=0; i<framesize; i++)
+					assertEquals("frame "+frames+", byte "+i, in.get_bits(8), mapped.get_bits(8));
+				in.closeFrame();
+				mapped.closeFrame();
+				frames++;
+				header = in.readFrame();
+			}
+			assertNull("frames", mapped.readFrame());
+		}
+		finally
+		{
+			mapin.close();
+		}
+	}
 }
@@ -0,0 +1,184 @@
+/*
+ * 10/17/26 : Initial version.
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+
+package javazoom.jl.decoder;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * FloatKernel unit test.
+ * It checks that the kernel selected at startup yields the same
+ * samples as the scalar code, bit for bit. Run it with
+ * --add-modules jdk.incubator.vector on JDK 16 or later, otherwise
+ * there is no kernel and the test passes trivially.
+ * The layer III test decodes test.mp3, see BitstreamTest.
+ */
+public class FloatKernelTest extends TestCase
+{
+	private FloatKernel kernel = null;
+
+	/**
+	 * Constructor for FloatKernelTest.
+	 * @param arg0
+	 */
+	public FloatKernelTest(String arg0)
+	{
+		super(arg0);
+	}
+
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		kernel = FloatKernel.getInstance();
+		if (kernel==null)
+			System.out.println("FloatKernelTest: no kernel, nothing to compare");
+	}
+
+	public void testSynthesis()
+	{
+		if (kernel==null)
+			return;
+
+		final int[] qualities = { SynthesisFilter.HIGH_QUALITY,
+			SynthesisFilter.MEDIUM_QUALITY, SynthesisFilter.LOW_QUALITY };
+		for (int q=0; q<qualities.length; q++)
+		{
+			SynthesisFilter scalar = new SynthesisFilter(0, 32700.0f, null);
+			SynthesisFilter vector = new SynthesisFilter(0, 32700.0f, null);
+			scalar.setQuality(qualities[q]);
+			vector.setQuality(qualities[q]);
+			scalar.setKernel(null);
+			vector.setKernel(kernel);
+
+			FloatBuffer expected = new FloatBuffer();
+			FloatBuffer actual = new FloatBuffer();
+			Random random = new Random(q);
+			float[] s = new float[32];
+			for (int n=0; n<10000; n++)
+			{
+				for (int i=0; i<32; i++)
+					s[i] = (float)random.nextGaussian() / (i + 1);
+				scalar.input_samples(s);
+				vector.input_samples(s);
+				scalar.calculate_pcm_samples(expected);
+				vector.calculate_pcm_samples(actual);
+				assertEquals("samples", expected.count, actual.count);
+				for (int i=0; i<expected.count; i++)
+				{
+					assertEquals("quality "+qualities[q]+", sample "+i,
+						Float.floatToIntBits(expected.f[i]),
+						Float.floatToIntBits(actual.f[i]));
+				}
+			}
+		}
+	}
+
+	public void testLayerIII() throws Exception
+	{
+		if (kernel==null)
+			return;
+
+		Properties props = new Properties();
+		InputStream pin = getClass().getClassLoader().getResourceAsStream("test.mp3.properties");
+		props.load(pin);
+		String filename = props.getProperty("basefile") + props.getProperty("filename");
+
+		assertEquals(decode(filename, null), decode(filename, kernel));
+	}
+
+	/**
+	 * Decodes a file to both channels and returns a checksum of
+	 * the samples.
+	 */
+	private long decode(String filename, FloatKernel kernel0) throws Exception
+	{
+		FileInputStream mp3in = new FileInputStream(filename);
+		try
+		{
+			Bitstream in = new Bitstream(mp3in);
+			SampleChecksum out = new SampleChecksum();
+			Header header = in.readFrame();
+			SynthesisFilter filter1 = new SynthesisFilter(0, 32700.0f, null);
+			SynthesisFilter filter2 = new SynthesisFilter(1, 32700.0f, null);
+			filter1.setKernel(kernel0);
+			filter2.setKernel(kernel0);
+			LayerIIIDecoder decoder = new LayerIIIDecoder(in, header,
+				filter1, filter2, out, OutputChannels.BOTH_CHANNELS);
+			decoder.setKernel(kernel0);
+			while (header!=null)
+			{
+				decoder.decodeFrame();
+				in.closeFrame();
+				header = in.readFrame();
+			}
+			return out.checksum;
+		}
+		finally
+		{
+			mp3in.close();
+		}
+	}
+
+	/**
+	 * Keeps the float samples of the last call to appendBlock().
+	 */
+	static class FloatBuffer extends Obuffer
+	{
+		float[] f = new float[32];
+		int count = 0;
+
+		public void appendBlock(int channel, float[] f0, int off, int len)
+		{
+			System.arraycopy(f0, off, f, 0, len);
+			count = len;
+		}
+
+		public void append(int channel, short value) {}
+		public void write_buffer(int val) {}
+		public void close() {}
+		public void clear_buffer() {}
+		public void set_stop_flag() {}
+	}
+
+	/**
+	 * Computes a checksum of the samples appended to it.
+	 */
+	static class SampleChecksum extends Obuffer
+	{
+		long checksum = 0;
+
+		public void append(int channel, short value)
+		{
+			checksum = 31 * checksum + (channel << 16) + value;
+		}
+
+		public void write_buffer(int val) {}
+		public void close() {}
+		public void clear_buffer() {}
+		public void set_stop_flag() {}
+	}
+}
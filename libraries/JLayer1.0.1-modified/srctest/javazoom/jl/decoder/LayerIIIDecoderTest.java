@@ -0,0 +1,135 @@
+/*
+ * 10/17/26 : Initial version.
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+
+package javazoom.jl.decoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * LayerIIIDecoder unit test.
+ * It decodes the beginning of test.mp3, see BitstreamTest, after
+ * damaging the side information of one granule.
+ */
+public class LayerIIIDecoderTest extends TestCase
+{
+	/** the frame whose side information is damaged */
+	private static final int DAMAGED = 10;
+
+	private byte[] data = null;
+
+	/**
+	 * Constructor for LayerIIIDecoderTest.
+	 * @param arg0
+	 */
+	public LayerIIIDecoderTest(String arg0)
+	{
+		super(arg0);
+	}
+
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Properties props = new Properties();
+		InputStream pin = getClass().getClassLoader().getResourceAsStream("test.mp3.properties");
+		props.load(pin);
+		String filename = props.getProperty("basefile") + props.getProperty("filename");
+		FileInputStream in = new FileInputStream(filename);
+		try
+		{
+			data = new byte[65536];
+			int len = 0;
+			for (int n = in.read(data); n > 0 && len < data.length; n = in.read(data, len, data.length - len))
+				len += n;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * The scale factors of the last granule in a frame are made longer
+	 * than the granule, so the count1 region ends before it starts and
+	 * the decoder must not zero the spectrum from a negative index.
+	 */
+	public void testDamagedCount1Region() throws Exception
+	{
+		Bitstream in = new Bitstream(new ByteArrayInputStream(data));
+		int offset = 0;
+		Header header = null;
+		for (int i=0; i<=DAMAGED; i++)
+		{
+			in.closeFrame();
+			offset = (int)in.getPosition();
+			header = in.readFrame();
+		}
+		if (header.version()!=Header.MPEG1 || header.layer()!=3)
+		{
+			System.out.println("LayerIIIDecoderTest: test.mp3 is not MPEG1 layer III, skipped");
+			return;
+		}
+		assertEquals("sync", (byte)0xff, data[offset]);
+
+		int channels = (header.mode()==Header.SINGLE_CHANNEL) ? 1 : 2;
+		int side = (offset + 4 + (header.checksums() ? 2 : 0)) * 8;
+		int scfsi = side + 9 + ((channels==1) ? 5 : 3) + 4 * (channels - 1);
+		int granule = scfsi + 4 + 59 * (2 * channels - 1);
+		setBits(scfsi, 4, 0);
+		setBits(granule, 12, 10);      // part2_3_length
+		setBits(granule + 12, 9, 0);   // big_values
+		setBits(granule + 29, 4, 15);  // scalefac_compress
+		setBits(granule + 33, 1, 0);   // window_switching_flag
+
+		in = new Bitstream(new ByteArrayInputStream(data));
+		header = in.readFrame();
+		LayerIIIDecoder decoder = new LayerIIIDecoder(in, header,
+			new SynthesisFilter(0, 32700.0f, null), new SynthesisFilter(1, 32700.0f, null),
+			new FloatKernelTest.SampleChecksum(), OutputChannels.BOTH_CHANNELS);
+		for (int i=0; i<DAMAGED+5; i++)
+		{
+			decoder.decodeFrame();
+			in.closeFrame();
+			header = in.readFrame();
+		}
+	}
+
+	/**
+	 * Writes an unsigned value to the test data, most significant bit first.
+	 */
+	private void setBits(int bit, int len, int value)
+	{
+		for (int i=0; i<len; i++)
+		{
+			int b = bit + i;
+			int mask = 0x80 >>> (b & 7);
+			if (((value >>> (len - 1 - i)) & 1) != 0)
+				data[b >>> 3] |= mask;
+			else
+				data[b >>> 3] &= ~mask;
+		}
+	}
+}
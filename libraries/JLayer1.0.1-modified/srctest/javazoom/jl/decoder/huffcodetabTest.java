@@ -0,0 +1,245 @@
+/*
+ * 10/17/26 : Initial version.
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+
+package javazoom.jl.decoder;
+
+import java.lang.reflect.Field;
+
+import junit.framework.TestCase;
+
+/**
+ * huffcodetab unit test.
+ * It decodes every codeword of every table, followed by its escape
+ * and sign bits, with the decoding table and with the walk of the
+ * decoder tree, and checks that both yield the values and consume
+ * the bits that the tree defines.
+ */
+public class huffcodetabTest extends TestCase
+{
+	private static final int MXOFF = 250;
+
+	/** the bytes behind each test codeword */
+	private static final int[] PADDING = { 0x00, 0xff, 0x5a };
+
+	/**
+	 * Constructor for huffcodetabTest.
+	 * @param arg0
+	 */
+	public huffcodetabTest(String arg0)
+	{
+		super(arg0);
+	}
+
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		huffcodetab.inithuff();
+	}
+
+	public void testAllCodewords() throws Exception
+	{
+		int decoded = 0;
+		for (int t=0; t<huffcodetab.ht.length; t++)
+		{
+			huffcodetab h = huffcodetab.ht[t];
+			int[][] val = (int[][])get(h, "val");
+			if (((Integer)get(h, "treelen")).intValue() == 0)
+				continue;
+			int[] codes = new int[512];
+			int[] lens = new int[512];
+			int[] values = new int[512];
+			int n = collect(val, 0, 0, 0, codes, lens, values, 0);
+			assertTrue("table "+t+" has codewords", n > 0);
+			for (int i=0; i<n; i++)
+				decoded += check(t, h, codes[i], lens[i], values[i]);
+		}
+		assertTrue(decoded > 0);
+	}
+
+	/**
+	 * Decodes a codeword with all escape values and signs that it
+	 * can take, and each padding, with both decoders.
+	 * @return the number of decoded codewords.
+	 */
+	private int check(int t, huffcodetab h, int code, int len, int value) throws Exception
+	{
+		boolean quad = t >= 32;
+		int linbits = ((Integer)get(h, "linbits")).intValue();
+		int xlen = ((Integer)get(h, "xlen")).intValue();
+		int ylen = ((Integer)get(h, "ylen")).intValue();
+		int[] escapes = (linbits == 0) ? new int[] { 0 } : new int[] { 0, 1, (1 << linbits) - 1 };
+		int count = 0;
+
+		for (int e=0; e<escapes.length; e++)
+		{
+			for (int neg=0; neg<2; neg++)
+			{
+				// the codeword, its escape and sign bits, and the expected values
+				long bits = code;
+				int nbits = len;
+				int[] expected;
+				if (quad)
+				{
+					int q = value & 0xf;
+					expected = new int[] { (q>>1) & 1, q & 1, (q>>3) & 1, (q>>2) & 1 };
+					int[] order = { 2, 3, 0, 1 };
+					for (int k=0; k<4; k++)
+					{
+						if (expected[order[k]] != 0)
+						{
+							bits = bits << 1 | neg;
+							nbits++;
+							if (neg != 0)
+								expected[order[k]] = -expected[order[k]];
+						}
+					}
+				}
+				else
+				{
+					int x = value >>> 4;
+					int y = value & 0xf;
+					if (linbits != 0 && x == xlen - 1)
+					{
+						bits = bits << linbits | escapes[e];
+						nbits += linbits;
+						x += escapes[e];
+					}
+					if (x != 0)
+					{
+						bits = bits << 1 | neg;
+						nbits++;
+						if (neg != 0)
+							x = -x;
+					}
+					if (linbits != 0 && y == ylen - 1)
+					{
+						bits = bits << linbits | escapes[e];
+						nbits += linbits;
+						y += escapes[e];
+					}
+					if (y != 0)
+					{
+						bits = bits << 1 | neg;
+						nbits++;
+						if (neg != 0)
+							y = -y;
+					}
+					expected = new int[] { x, y, 0, 0 };
+				}
+				assertTrue(nbits <= 56);
+
+				for (int p=0; p<PADDING.length; p++)
+				{
+					String where = "table "+t+", codeword "+Integer.toBinaryString(code)
+						+" ("+len+" bits), escape "+escapes[e]+", sign "+neg+", padding "+p;
+					int[] table = decode(h, bits, nbits, PADDING[p], false, expected, where);
+					int[] tree = decode(h, bits, nbits, PADDING[p], true, expected, where);
+					for (int k=0; k<4; k++)
+						assertEquals(where, tree[k], table[k]);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes the specified bits with the decoding table or with the
+	 * decoder tree and checks the values and the number of bits read.
+	 * @return x, y, v and w.
+	 */
+	private int[] decode(huffcodetab h, long bits, int nbits, int padding, boolean walk,
+		int[] expected, String where) throws Exception
+	{
+		// the bits, followed by the padding pattern
+		long pattern = 0;
+		for (int b=0; b<8; b++)
+			pattern = pattern << 8 | padding;
+		long word = bits << (64 - nbits) | (pattern >>> nbits);
+		BitReserve br = new BitReserve();
+		for (int b=0; b<8; b++)
+			br.hputbuf((int)(word >>> (56 - 8 * b)) & 0xff);
+		for (int b=0; b<8; b++)
+			br.hputbuf(padding);
+
+		int[] x = new int[1], y = new int[1], v = new int[1], w = new int[1];
+		Object lookup = get(h, "lookup");
+		int error;
+		try
+		{
+			if (walk)
+				set(h, "lookup", null);
+			error = huffcodetab.huffman_decoder(h, x, y, v, w, br);
+		}
+		finally
+		{
+			set(h, "lookup", lookup);
+		}
+		where += walk ? ", tree" : ", table";
+		assertEquals(where, 0, error);
+		assertEquals(where+": bits read", nbits, br.hsstell());
+		assertEquals(where+": x", expected[0], x[0]);
+		assertEquals(where+": y", expected[1], y[0]);
+		assertEquals(where+": v", expected[2], v[0]);
+		assertEquals(where+": w", expected[3], w[0]);
+		return new int[] { x[0], y[0], v[0], w[0] };
+	}
+
+	/**
+	 * Collects the codewords of the decoder tree below point.
+	 * @return the number of codewords collected so far.
+	 */
+	private static int collect(int[][] val, int point, int code, int len,
+		int[] codes, int[] lens, int[] values, int n)
+	{
+		if (val[point][0] == 0)
+		{
+			codes[n] = code;
+			lens[n] = len;
+			values[n] = val[point][1];
+			return n + 1;
+		}
+		assertTrue("codeword length", len < 32);
+		for (int bit=0; bit<2; bit++)
+		{
+			int p = point;
+			while (val[p][bit] >= MXOFF)
+				p += val[p][bit];
+			n = collect(val, p + val[p][bit], code << 1 | bit, len + 1, codes, lens, values, n);
+		}
+		return n;
+	}
+
+	private static Object get(huffcodetab h, String name) throws Exception
+	{
+		Field f = huffcodetab.class.getDeclaredField(name);
+		f.setAccessible(true);
+		return f.get(h);
+	}
+
+	private static void set(huffcodetab h, String name, Object value) throws Exception
+	{
+		Field f = huffcodetab.class.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(h, value);
+	}
+}
@@ -0,0 +1,98 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.util.Locale;
+
+/** The cut points that {@link MP3AutoCut} has found in an mp3 file. */
+public class CutResult
+{
+    private final File mp3;
+    private final int startMillis;
+    private final int endMillis;
+    private final long startOffset;
+    private final long endOffset;
+
+    CutResult(File mp3, int startMillis, int endMillis, long startOffset, long endOffset)
+    {
+        this.mp3 = mp3;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    /** Returns the file that has been cut. */
+    public File getFile()
+    {
+        return this.mp3;
+    }
+
+    /** Returns the time of the start cut point in milliseconds. */
+    public int getStartMillis()
+    {
+        return this.startMillis;
+    }
+
+    /** Returns the time of the end cut point in milliseconds,
+        <code>Integer.MAX_VALUE</code> if the cut ends at the end of the file. */
+    public int getEndMillis()
+    {
+        return this.endMillis;
+    }
+
+    /** Returns the byte offset of the start cut point. */
+    public long getStartOffset()
+    {
+        return this.startOffset;
+    }
+
+    /** Returns the byte offset of the end cut point. */
+    public long getEndOffset()
+    {
+        return this.endOffset;
+    }
+
+    /** Returns whether a cut point other than the beginning and the end
+        of the file has been found. Otherwise nothing has been cut. */
+    public boolean hasCutpoints()
+    {
+        return startOffset != 0l || endOffset < mp3.length();
+    }
+
+    /** Returns the file name, the cut points in seconds and bytes, and
+        the cut points in minutes, seconds and centiseconds. */
+    @Override
+    public String toString()
+    {
+        return String.format(
+            (Locale) null,
+            "%s %.2f %.2f %d %d %02d.%02d.%02d %02d.%02d.%02d",
+            mp3.getName(),
+            startMillis/1000.,
+            endMillis/1000.,
+            startOffset,
+            endOffset,
+            startMillis/60000, // whole minutes
+            (startMillis/1000) % 60, // whole seconds
+            (startMillis % 1000)/10, // centiseconds
+            endMillis/60000,
+            (endMillis/1000) % 60,
+            (endMillis % 1000)/10);
+    }
+}
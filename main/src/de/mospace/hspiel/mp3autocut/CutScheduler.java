@@ -0,0 +1,160 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Cuts a batch of mp3 files with a bounded number of disk readers.
+    <p>Each file passes through the stages of {@link MP3AutoCut#cut(File, File)}:
+    the search, which decodes the file and correlates its loudness with
+    the patterns in the same pass, the mp3DirectCut project file and the
+    cropped copy. All stages of a file run on one of <code>readers</code>
+    threads, so that no more than <code>readers</code> files are read at
+    once. The files are started largest first, so that a large file does
+    not hold up the end of the batch.</p>
+    <p>If there are more workers than readers, the searches are split
+    into segments that are searched on a work-stealing pool of
+    <code>workers</code> threads, see
+    {@link MultiStepSearch#search(File, MultiStepSearch[], ForkJoinPool)}.
+    This keeps the processors busy while only a few files are read.</p>
+*/
+final class CutScheduler
+{
+    private final MP3AutoCut cutter;
+    private final int workers;
+    private final int readers;
+
+    /** Creates a new scheduler.
+        @param cutter the cutter that cuts the files
+        @param workers the number of threads that search the files
+        @param readers the number of files that are read at once
+    */
+    CutScheduler(MP3AutoCut cutter, int workers, int readers)
+    {
+        if (workers < 1 || readers < 1)
+        {
+            throw new IllegalArgumentException("workers " + workers + ", readers " + readers);
+        }
+        this.cutter = cutter;
+        this.workers = workers;
+        this.readers = readers;
+    }
+
+    /** Returns the number of processors, or <code>-DmaxThreads</code>
+        if that is smaller. */
+    static int maxThreads()
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        final String pMaxThreads = System.getProperty("maxThreads");
+        if (pMaxThreads != null)
+        {
+            maxThreads = Math.min(Integer.valueOf(pMaxThreads), maxThreads);
+        }
+        return maxThreads;
+    }
+
+    /** Returns <code>-DmaxReaders</code>, by default 2 or
+        <code>maxThreads</code> if that is smaller. */
+    static int maxReaders(int maxThreads)
+    {
+        final String pMaxReaders = System.getProperty("maxReaders");
+        return (pMaxReaders == null)
+            ? Math.min(2, maxThreads)
+            : Integer.valueOf(pMaxReaders);
+    }
+
+    /** Starts to cut the specified files and returns immediately.
+        The threads of the scheduler end when all files have been cut.
+        @param mp3 the input files to process
+        @param outputdir where to store the cropped mp3s, may be
+            <code>null</code> if the cutter does not crop
+        @return for each input file, in the same order, the future
+            result of {@link MP3AutoCut#cut(File, File)}
+    */
+    List<Future<CutResult>> submit(File[] mp3, File outputdir)
+    {
+        @SuppressWarnings("unchecked")
+        final Future<CutResult>[] results = new Future[mp3.length];
+        if (mp3.length == 0)
+        {
+            return Arrays.asList(results);
+        }
+
+        final int numReaders = Math.min(readers, mp3.length);
+        final ForkJoinPool pool = (numReaders < workers)
+            ? new ForkJoinPool(workers)
+            : null;
+        final ExecutorService exec = Executors.newFixedThreadPool(numReaders);
+        final AtomicInteger remaining = new AtomicInteger(mp3.length);
+
+        for (final int i : largestFirst(mp3))
+        {
+            final File in = mp3[i];
+            final File out = (outputdir == null) ? null : new File(outputdir, in.getName());
+            final FutureTask<CutResult> task = new FutureTask<CutResult>(
+                new Callable<CutResult>(){
+                    @Override
+                    public CutResult call() throws Exception{
+                        return cutter.cut(in, out, pool);
+                    }
+                })
+            {
+                @Override
+                protected void done(){
+                    if (remaining.decrementAndGet() == 0 && pool != null){
+                        pool.shutdown();
+                    }
+                }
+            };
+            results[i] = task;
+            exec.execute(task);
+        }
+
+        /* the queued files are still cut */
+        exec.shutdown();
+        return Arrays.asList(results);
+    }
+
+    /** Returns the indices of the specified files by decreasing length. */
+    private static Integer[] largestFirst(final File[] mp3)
+    {
+        final Integer[] order = new Integer[mp3.length];
+        final long[] length = new long[mp3.length];
+        for (int i = 0; i < mp3.length; i++)
+        {
+            order[i] = i;
+            length[i] = mp3[i].length();
+        }
+        Arrays.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b){
+                return (length[a] < length[b]) ? 1 : ((length[a] > length[b]) ? -1 : 0);
+            }
+        });
+        return order;
+    }
+}
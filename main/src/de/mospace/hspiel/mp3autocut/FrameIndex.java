@@ -0,0 +1,319 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/** The byte offset and the playing time of every frame of an mp3 file.
+    <p>The index holds an entry for each frame count from zero to the
+    number of frames of the file. Each entry records the byte offset
+    reported by {@link MP3Reader#getPosition} and the playing time
+    reported by {@link MP3Reader#getMillis} after that many frames have
+    been read. Byte offsets are stored as differences to the preceding
+    entry, with an absolute offset every {@link #BLOCK} entries.
+    Playing times are stored as they are.</p>
+    <p>The index is built by a single scan over the frame headers of
+    the file and persisted next to the file, in a file with the
+    additional extension <code>.frames</code>. Persisted indexes are
+    memory-mapped. They are rebuilt when the size or the modification
+    time of the mp3 file changes. Setting the system property
+    <code>frameIndex</code> to <code>false</code> keeps indexes in memory
+    only.</p>
+*/
+public class FrameIndex
+{
+    /** The first four bytes of an index file: "MACF". */
+    private final static int MAGIC = 0x4d414346;
+
+    /** The version of the index file format. */
+    private final static int VERSION = 1;
+
+    /** The size of the index file header in bytes. */
+    private final static int HEADER_SIZE = 32;
+
+    /** The number of entries per absolute byte offset. */
+    private final static int BLOCK = 64;
+
+    private final int entries;
+    private final LongBuffer offsets;
+    private final IntBuffer deltas;
+    private final IntBuffer millis;
+
+    /** @param b the index in the index file format */
+    private FrameIndex(ByteBuffer b)
+    {
+        this.entries = b.getInt(24);
+        final int blocks = blocks(entries);
+
+        b.position(HEADER_SIZE);
+        this.offsets = b.slice().asLongBuffer();
+        b.position(HEADER_SIZE + 8 * blocks);
+        this.deltas = b.slice().asIntBuffer();
+        b.position(HEADER_SIZE + 8 * blocks + 4 * entries);
+        this.millis = b.slice().asIntBuffer();
+    }
+
+    /** Returns whether frame indexes are persisted next to the mp3 files. */
+    public static boolean isPersistenceEnabled()
+    {
+        return !"false".equals(System.getProperty("frameIndex"));
+    }
+
+    /** Returns the frame index of the specified file. If there is no
+        valid persisted index, the file is scanned and the index is
+        persisted if possible.
+        @param mp3 the mp3 file
+        @return the frame index of the mp3 file
+    */
+    public static FrameIndex get(File mp3) throws IOException, MP3SearchException
+    {
+        final long size = mp3.length();
+        final long mtime = mp3.lastModified();
+        final File persisted = new File(mp3.getPath() + ".frames");
+        final boolean persist = isPersistenceEnabled();
+
+        FrameIndex result = null;
+        if (persist && persisted.isFile())
+        {
+            result = read(persisted, size, mtime);
+        }
+
+        if (result == null)
+        {
+            final ByteBuffer b = scan(mp3, size, mtime);
+            if (persist)
+            {
+                try
+                {
+                    write(b, persisted);
+                }
+                catch (IOException ex)
+                {
+                    System.err.println("Error writing frame index of " + mp3 +
+                        ":\n\t" + ex);
+                }
+            }
+            result = new FrameIndex(b);
+        }
+
+        return result;
+    }
+
+    /** Returns the number of frames of the mp3 file. */
+    public int getFrameCount()
+    {
+        return entries - 1;
+    }
+
+    /** Returns the position after the specified number of frames.
+        @param framecount the number of frames, values below zero are
+            taken to be zero
+        @return the position or <code>null</code> if the file has fewer frames
+    */
+    public MP3Position getPositionForFrameCount(int framecount)
+    {
+        final int k = Math.max(framecount, 0);
+        return (k < entries) ? position(k) : null;
+    }
+
+    /** Returns the position after the least number of frames whose
+        playing time is at least the specified time.
+        @param time_ms the playing time in milliseconds
+        @return the position or <code>null</code> if the playing time of
+            the file is shorter
+    */
+    public MP3Position getPositionForTime(int time_ms)
+    {
+        /* binary search for the first entry with millis >= time_ms */
+        int lo = 0;
+        int hi = entries;
+        while (lo < hi)
+        {
+            final int mid = (lo + hi) >>> 1;
+            if (millis.get(mid) < time_ms)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+
+        return (lo < entries) ? position(lo) : null;
+    }
+
+    private MP3Position position(int k)
+    {
+        final int block = k / BLOCK;
+        long offset = offsets.get(block);
+        for (int j = block * BLOCK + 1; j <= k; j++)
+        {
+            offset += deltas.get(j);
+        }
+
+        return new MP3Position(millis.get(k), k, offset);
+    }
+
+    private static int blocks(int entries)
+    {
+        return (entries + BLOCK - 1) / BLOCK;
+    }
+
+    /** Scans the frame headers of the specified file.
+        @return the index in the index file format
+    */
+    private static ByteBuffer scan(File mp3, long size, long mtime)
+    throws IOException, MP3SearchException
+    {
+        /* the frame count and the byte offset and playing time of each entry */
+        int count = 0;
+        long[] offset = new long[(int) (size/100) + 1];
+        int[] ms = new int[offset.length];
+
+        final FileInputStream smp3 = new FileInputStream(mp3);
+        try
+        {
+            final MP3Reader reader = new MP3Reader(smp3);
+            for (; reader.hasMoreFrames(); reader.readFrame(false))
+            {
+                if (count == offset.length)
+                {
+                    offset = java.util.Arrays.copyOf(offset, 2 * count);
+                    ms = java.util.Arrays.copyOf(ms, 2 * count);
+                }
+                offset[count] = reader.getPosition();
+                ms[count] = reader.getMillis();
+                count++;
+            }
+        }
+        finally
+        {
+            smp3.close();
+        }
+
+        final int blocks = blocks(count);
+        final ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + 8 * blocks + 8 * count);
+        b.putInt(MAGIC);
+        b.putInt(VERSION);
+        b.putLong(size);
+        b.putLong(mtime);
+        b.putInt(count);
+        b.putInt(BLOCK);
+        for (int k = 0; k < count; k += BLOCK)
+        {
+            b.putLong(offset[k]);
+        }
+        for (int k = 0; k < count; k++)
+        {
+            b.putInt((k % BLOCK == 0) ? 0 : (int) (offset[k] - offset[k - 1]));
+        }
+        for (int k = 0; k < count; k++)
+        {
+            b.putInt(ms[k]);
+        }
+        b.position(0);
+        return b;
+    }
+
+    /** Memory-maps a persisted index.
+        @return the index or <code>null</code> if the index file does not
+            match the specified size and modification time or is corrupt
+    */
+    private static FrameIndex read(File f, long size, long mtime) throws IOException
+    {
+        final FileChannel in = (new FileInputStream(f)).getChannel();
+        try
+        {
+            final long length = in.size();
+            if (length < HEADER_SIZE)
+            {
+                return null;
+            }
+
+            final ByteBuffer b = in.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            final int magic = b.getInt();
+            final int version = b.getInt();
+            final long fsize = b.getLong();
+            final long fmtime = b.getLong();
+            final int entries = b.getInt();
+            final int block = b.getInt();
+
+            if (magic != MAGIC || version != VERSION ||
+                fsize != size || fmtime != mtime || block != BLOCK ||
+                entries < 1 ||
+                length != HEADER_SIZE + 8L * blocks(entries) + 8L * entries)
+            {
+                return null;
+            }
+
+            return new FrameIndex(b);
+        }
+        finally
+        {
+            /* the mapping remains valid after the channel is closed */
+            in.close();
+        }
+    }
+
+    /** Writes an index to the specified file. The index is first written
+        to a temporary file, which is then renamed, so that concurrent
+        readers never see a partial file.
+    */
+    private static void write(ByteBuffer index, File f) throws IOException
+    {
+        final ByteBuffer b = index.duplicate();
+        b.position(0);
+
+        final File tmp = File.createTempFile("mp3autocut", ".tmp", f.getAbsoluteFile().getParentFile());
+        try
+        {
+            final FileChannel out = (new FileOutputStream(tmp)).getChannel();
+            try
+            {
+                while (b.hasRemaining())
+                {
+                    out.write(b);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            f.delete();
+            if (!tmp.renameTo(f))
+            {
+                throw new IOException("Cannot rename " + tmp + " to " + f);
+            }
+        }
+        finally
+        {
+            if (tmp.isFile())
+            {
+                tmp.delete();
+            }
+        }
+    }
+}
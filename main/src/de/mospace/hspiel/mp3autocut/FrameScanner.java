@@ -0,0 +1,133 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import javazoom.jl.decoder.Header;
+
+/** Parses frame headers of an mp3 file in a memory-mapped buffer
+    without reading the frame payload.
+    <p>The scanner follows the frame synchronization of the
+    javazoom Bitstream after its first frame: a frame is accepted if its
+    header matches the version, layer, sample frequency and channel mode
+    of the first frame, and if it is immediately followed by another
+    such header. The scanner only reports frames that the Bitstream
+    would find at the same position and with the same length. Everything
+    else, such as junk between frames, free format frames or the last
+    frame of the file, is left to the Bitstream.</p>
+*/
+final class FrameScanner
+{
+    /** The header bits that must match the first frame: sync word,
+        version, layer and sample frequency. */
+    private final static int SYNC_MASK = 0xFFF80C00;
+
+    /** The channel mode bits of a header. */
+    private final static int SINGLE_CHANNEL_MASK = 0x000000C0;
+
+    private final ByteBuffer buffer;
+
+    /** Maps the file of the specified channel.
+        @param channel a channel of an mp3 file. Files larger than 2 GiB
+            are scanned up to 2 GiB.
+    */
+    FrameScanner(FileChannel channel) throws IOException
+    {
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+            Math.min(channel.size(), Integer.MAX_VALUE));
+    }
+
+    /** Returns the length of the frame at the specified offset including
+        its header.
+        @param offset the byte offset of the frame in the file
+        @param syncHeader the header of a previous frame of the same
+            stream, see {@link Header#getSyncHeader}
+        @param version the version of the previous frame, see {@link Header#version}
+        @return the length of the frame in bytes or -1 if there is no
+            frame at the offset that the scanner can parse
+    */
+    int frameLength(long offset, int syncHeader, int version)
+    {
+        if (offset < 0 || offset + 4 > buffer.limit())
+        {
+            return -1;
+        }
+
+        final int headerstring = buffer.getInt((int) offset);
+        if (!isSyncMark(headerstring, syncHeader))
+        {
+            return -1;
+        }
+
+        final int framesize = framesize(headerstring, version);
+        final long next = offset + 4 + framesize;
+        if (framesize < 0 || next + 4 > buffer.limit() ||
+            !isSyncMark(buffer.getInt((int) next), syncHeader))
+        {
+            return -1;
+        }
+
+        return 4 + framesize;
+    }
+
+    /** Checks a header like Bitstream.isSyncMark in strict mode. */
+    private static boolean isSyncMark(int headerstring, int syncHeader)
+    {
+        return ((headerstring & SYNC_MASK) == (syncHeader & SYNC_MASK)) &&
+            ((headerstring & SINGLE_CHANNEL_MASK) == SINGLE_CHANNEL_MASK) ==
+            ((syncHeader & SINGLE_CHANNEL_MASK) == SINGLE_CHANNEL_MASK) &&
+            (((headerstring >>> 10) & 3) != 3) &&
+            (((headerstring >>> 17) & 3) != 0) &&
+            (((headerstring >>> 19) & 3) != 1);
+    }
+
+    /** Computes the frame size excluding the header like
+        {@link Header#calculate_framesize}.
+        @return the frame size or -1 for free format and invalid bitrates
+    */
+    private static int framesize(int headerstring, int version)
+    {
+        final int layer = 4 - ((headerstring >>> 17) & 3);
+        final int bitrateIndex = (headerstring >>> 12) & 0xF;
+        final int padding = (headerstring >>> 9) & 1;
+        final int frequency = Header.frequencies[version][(headerstring >>> 10) & 3];
+        final int bitrate = Header.bitrates[version][layer - 1][bitrateIndex];
+        if (bitrate == 0)
+        {
+            return -1;
+        }
+
+        int framesize;
+        if (layer == 1)
+        {
+            framesize = ((12 * bitrate) / frequency + padding) << 2;
+        }
+        else
+        {
+            framesize = (144 * bitrate) / frequency;
+            if (version == Header.MPEG2_LSF || version == Header.MPEG25_LSF)
+            {
+                framesize >>= 1;
+            }
+            framesize += padding;
+        }
+
+        return framesize - 4;
+    }
+}
@@ -0,0 +1,453 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/** The loudness envelope of an entire mp3 file, that is the
+    POINTS_PER_FRAME loudness values of each of its frames.
+    <p>Loudness envelopes are persisted in a cache directory, keyed by
+    the size, modification time and a hash of the content of the mp3 file.
+    Cached envelopes are memory-mapped, so that searching a file whose
+    envelope is cached does not need to decode any audio.</p>
+    <p>The cache is used by {@link MultiPatternSearch} if the system
+    property <code>loudnessCache</code> is <code>true</code>. Note that
+    filling the cache decodes the entire mp3 file.</p>
+    <p>The cache holds at most <code>-DloudnessCacheMB</code> megabytes
+    (default 256). When a new envelope makes it larger, the envelopes
+    that have not been used for the longest time are deleted. Cache
+    files of an older format are deleted when they are found.</p>
+*/
+public class LoudnessEnvelope
+{
+    /** The first four bytes of a cache file: "MACL". */
+    private final static int MAGIC = 0x4d41434c;
+
+    /** The version of the cache file format. Version 2 holds the
+        loudness of the downmix of stereo files rather than that of
+        their left channel, version 3 that of samples decoded at
+        {@link MP3Search#SYNTHESIS_QUALITY}. */
+    private final static int VERSION = 3;
+
+    /** The size of the cache file header in bytes. */
+    private final static int HEADER_SIZE = 40;
+
+    /** The number of bytes at the start and at the end of an mp3
+        file that enter the content hash. */
+    private final static int HASHED_BYTES = 65536;
+
+    /** The file name extension of cache files. */
+    private final static String EXTENSION = ".loudness";
+
+    /** The maximum total size of the cache files in bytes. */
+    private final static long MAX_CACHE_SIZE =
+        Math.round(Double.parseDouble(System.getProperty("loudnessCacheMB", "256")) * (1 << 20));
+
+    private final int frames;
+    private final int samplesPerFrame;
+    private final float msPerFrame;
+    private final DoubleBuffer loudness;
+
+    private LoudnessEnvelope(int frames, int samplesPerFrame, float msPerFrame,
+            DoubleBuffer loudness)
+    {
+        this.frames = frames;
+        this.samplesPerFrame = samplesPerFrame;
+        this.msPerFrame = msPerFrame;
+        this.loudness = loudness;
+    }
+
+    /** Returns whether loudness envelopes are cached. */
+    public static boolean isCacheEnabled()
+    {
+        return Boolean.getBoolean("loudnessCache");
+    }
+
+    /** Returns the directory in which loudness envelopes are cached.
+    Tries to create the directory if it does not exist.
+    @return the directory for cached loudness envelopes
+    */
+    public static File getCacheDirectory()
+    {
+        final File f = new File(MP3AutoCut.getSettingDirectory(), "loudness");
+        synchronized (LoudnessEnvelope.class){
+            if (!f.exists()){
+                f.mkdirs();
+            }
+        }
+        return f;
+    }
+
+    /** Returns the loudness envelope of the specified file from the cache.
+        If the envelope is not in the cache, the file is decoded and
+        its envelope is stored in the cache.
+        @param mp3 the mp3 file
+        @return the loudness envelope of the mp3 file or <code>null</code>
+            if the file has frames of different durations or sizes
+    */
+    public static LoudnessEnvelope get(File mp3) throws IOException, MP3SearchException
+    {
+        final long size = mp3.length();
+        final long mtime = mp3.lastModified();
+        final File cached = new File(getCacheDirectory(),
+            contentHash(mp3, size, mtime) + EXTENSION);
+
+        LoudnessEnvelope result = null;
+        if (cached.isFile())
+        {
+            result = read(cached, size, mtime);
+            if (result == null)
+            {
+                /* an older version or a corrupt file */
+                cached.delete();
+            }
+            else
+            {
+                /* for the least recently used eviction */
+                cached.setLastModified(System.currentTimeMillis());
+            }
+        }
+
+        if (result == null)
+        {
+            result = decode(mp3);
+            if (result != null)
+            {
+                try
+                {
+                    result.write(cached, size, mtime);
+                    trim(cached.getParentFile(), MAX_CACHE_SIZE);
+                }
+                catch (IOException ex)
+                {
+                    System.err.println("Error caching loudness of " + mp3 +
+                        ":\n\t" + ex);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /** Deletes the least recently used cache files in the specified
+        directory until their total size is at most maxSize bytes.
+        Files that cannot be deleted, e.g. because they are mapped on
+        Windows, are skipped.
+    */
+    static synchronized void trim(File dir, long maxSize)
+    {
+        final File[] list = dir.listFiles();
+        if (list == null)
+        {
+            return;
+        }
+
+        long total = 0;
+        int n = 0;
+        final File[] files = new File[list.length];
+        final long[] used = new long[list.length];
+        for (File f : list)
+        {
+            if (f.isFile() && f.getName().endsWith(EXTENSION))
+            {
+                total += f.length();
+                used[n] = f.lastModified();
+                files[n++] = f;
+            }
+        }
+        if (total <= maxSize)
+        {
+            return;
+        }
+
+        /* oldest first */
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b){
+                return (used[a] < used[b]) ? -1 : ((used[a] > used[b]) ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < n && total > maxSize; i++)
+        {
+            final File f = files[order[i]];
+            final long length = f.length();
+            if (f.delete())
+            {
+                total -= length;
+            }
+        }
+    }
+
+    /** Returns the number of frames of this envelope. */
+    public int getFrameCount()
+    {
+        return frames;
+    }
+
+    /** Returns the number of samples per frame of the mp3 file. */
+    public int getSamplesPerFrame()
+    {
+        return samplesPerFrame;
+    }
+
+    /** Returns the playing time of a single frame in milliseconds. */
+    public float getMillisPerFrame()
+    {
+        return msPerFrame;
+    }
+
+    /** Copies the loudness values of the specified frame.
+        @param frame the zero-based index of the frame
+        @param frameloudness the output array of length POINTS_PER_FRAME
+    */
+    public void get(int frame, double[] frameloudness)
+    {
+        final int offset = frame * MP3Search.POINTS_PER_FRAME;
+        for (int k = 0; k < MP3Search.POINTS_PER_FRAME; k++)
+        {
+            frameloudness[k] = loudness.get(offset + k);
+        }
+    }
+
+    /** Decodes the entire mp3 file and computes its loudness envelope.
+        @return the loudness envelope or <code>null</code> if the file has
+            frames of different durations or sizes
+    */
+    private static LoudnessEnvelope decode(File mp3) throws IOException, MP3SearchException
+    {
+        final FileInputStream smp3 = new FileInputStream(mp3);
+        final double[] frameloudness = new double[MP3Search.POINTS_PER_FRAME];
+        DoubleBuffer lloudness = null;
+        int samplesPerFrame = 0;
+        float msPerFrame = 0;
+
+        try
+        {
+            final MP3Reader reader = new MP3Reader(smp3, MP3Search.SYNTHESIS_QUALITY);
+            final LoudnessOBuffer sampleLoudness = reader.createLoudnessOutput();
+
+            while (reader.hasMoreFrames())
+            {
+                reader.readFrame();
+                if (!reader.hasMoreFrames())
+                {
+                    break;
+                }
+
+                /* the envelope can only represent uniform frames */
+                final int samples = sampleLoudness.getSampleCount();
+                final float ms = reader.getLastHeader().ms_per_frame();
+                if (lloudness == null)
+                {
+                    samplesPerFrame = samples;
+                    msPerFrame = ms;
+                    lloudness = DoubleBuffer.allocate(MP3Search.POINTS_PER_FRAME *
+                        (int) (mp3.length()/reader.getLastHeader().framesize + 1));
+                }
+
+                if (samples == 0 || samples != samplesPerFrame || ms != msPerFrame)
+                {
+                    return null;
+                }
+
+                sampleLoudness.frameLoudness(frameloudness);
+
+                /* grow the output buffer if necessary */
+                if (lloudness.remaining() < frameloudness.length)
+                {
+                    final DoubleBuffer grown = DoubleBuffer.allocate(2 * lloudness.capacity());
+                    lloudness.flip();
+                    grown.put(lloudness);
+                    lloudness = grown;
+                }
+
+                lloudness.put(frameloudness);
+            }
+        }
+        finally
+        {
+            smp3.close();
+        }
+
+        if (lloudness == null)
+        {
+            return null;
+        }
+
+        lloudness.flip();
+        return new LoudnessEnvelope(
+            lloudness.limit()/MP3Search.POINTS_PER_FRAME,
+            samplesPerFrame,
+            msPerFrame,
+            lloudness);
+    }
+
+    /** Memory-maps a cached loudness envelope.
+        @return the loudness envelope or <code>null</code> if the cache file
+            does not match the specified size and modification time or
+            is corrupt
+    */
+    private static LoudnessEnvelope read(File f, long size, long mtime) throws IOException
+    {
+        final FileChannel in = (new FileInputStream(f)).getChannel();
+        try
+        {
+            final long length = in.size();
+            if (length < HEADER_SIZE)
+            {
+                return null;
+            }
+
+            final ByteBuffer b = in.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            final int magic = b.getInt();
+            final int version = b.getInt();
+            final long fsize = b.getLong();
+            final long fmtime = b.getLong();
+            final int frames = b.getInt();
+            final int samplesPerFrame = b.getInt();
+            final float msPerFrame = b.getFloat();
+            final int pointsPerFrame = b.getInt();
+
+            if (magic != MAGIC || version != VERSION ||
+                fsize != size || fmtime != mtime ||
+                pointsPerFrame != MP3Search.POINTS_PER_FRAME ||
+                length != HEADER_SIZE + (long) frames * pointsPerFrame * (Double.SIZE/8))
+            {
+                return null;
+            }
+
+            b.position(HEADER_SIZE);
+            return new LoudnessEnvelope(frames, samplesPerFrame, msPerFrame,
+                b.slice().asDoubleBuffer());
+        }
+        finally
+        {
+            /* the mapping remains valid after the channel is closed */
+            in.close();
+        }
+    }
+
+    /** Writes this loudness envelope to the specified cache file.
+        The envelope is first written to a temporary file, which is then
+        renamed, so that concurrent readers never see a partial file.
+    */
+    private void write(File f, long size, long mtime) throws IOException
+    {
+        final ByteBuffer b = ByteBuffer.allocate(
+            HEADER_SIZE + frames * MP3Search.POINTS_PER_FRAME * (Double.SIZE/8));
+        b.putInt(MAGIC);
+        b.putInt(VERSION);
+        b.putLong(size);
+        b.putLong(mtime);
+        b.putInt(frames);
+        b.putInt(samplesPerFrame);
+        b.putFloat(msPerFrame);
+        b.putInt(MP3Search.POINTS_PER_FRAME);
+        b.asDoubleBuffer().put(loudness.duplicate());
+        b.position(0);
+
+        final File tmp = File.createTempFile("mp3autocut", ".tmp", f.getParentFile());
+        try
+        {
+            final FileChannel out = (new FileOutputStream(tmp)).getChannel();
+            try
+            {
+                while (b.hasRemaining())
+                {
+                    out.write(b);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            f.delete();
+            if (!tmp.renameTo(f))
+            {
+                throw new IOException("Cannot rename " + tmp + " to " + f);
+            }
+        }
+        finally
+        {
+            if (tmp.isFile())
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Computes the cache key of an mp3 file: a hex encoded SHA-1 hash
+        of its size, its modification time and the bytes at its start
+        and at its end.
+    */
+    private static String contentHash(File mp3, long size, long mtime) throws IOException
+    {
+        final MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new Error(ex);
+        }
+
+        final ByteBuffer key = ByteBuffer.allocate(16);
+        key.putLong(size);
+        key.putLong(mtime);
+        md.update(key.array());
+
+        final RandomAccessFile in = new RandomAccessFile(mp3, "r");
+        try
+        {
+            final byte[] buff = new byte[(int) Math.min(HASHED_BYTES, size)];
+            in.readFully(buff);
+            md.update(buff);
+            in.seek(size - buff.length);
+            in.readFully(buff);
+            md.update(buff);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (byte d : md.digest())
+        {
+            sb.append(String.format("%02x", d & 0xff));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,133 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import javazoom.jl.decoder.Obuffer;
+
+/** An output buffer that computes the loudness of a frame while the
+    decoder synthesizes its samples. The samples are not stored.
+    Each sample is clipped to 16 bit, and the natural logarithm of its
+    square, taken from a table, is summed in the block of the frame that
+    the sample belongs to. The sums are converted to the loudness by
+    {@link MP3Search#normalizeLoudness}. Only channel 0 is used.
+    @see MP3Reader#createLoudnessOutput
+*/
+public final class LoudnessOBuffer extends Obuffer
+{
+    /** The natural logarithm of the square of each 16 bit amplitude. */
+    private final static double[] LOG_SQUARE = new double[32769];
+
+    static
+    {
+        for (int a = 1; a < LOG_SQUARE.length; a++)
+        {
+            final double d = a;
+            LOG_SQUARE[a] = Math.log(d * d);
+        }
+    }
+
+    private final double[] sums = new double[MP3Search.POINTS_PER_FRAME];
+    private double blocksize = Double.POSITIVE_INFINITY;
+    private int samples = 0;
+
+    LoudnessOBuffer()
+    {
+        // created by MP3Reader
+    }
+
+    /** Sets the number of samples of the next frame, which determines
+        the block that each sample belongs to.
+        @param frameSamples the number of samples per channel
+    */
+    void setFrameSamples(int frameSamples)
+    {
+        blocksize = frameSamples * 1.0f/MP3Search.POINTS_PER_FRAME;
+    }
+
+    /** Returns the number of samples of the current frame. */
+    public int getSampleCount()
+    {
+        return samples;
+    }
+
+    /** Computes the loudness of the current frame and starts a new frame.
+        @param frameloudness the output array of length
+            {@link MP3Search#POINTS_PER_FRAME}
+    */
+    public void frameLoudness(double[] frameloudness)
+    {
+        System.arraycopy(sums, 0, frameloudness, 0, sums.length);
+        MP3Search.normalizeLoudness(frameloudness, samples);
+        clear_buffer();
+    }
+
+    @Override
+    public void append(int channel, short value)
+    {
+        if (channel == 0)
+        {
+            add(value);
+        }
+    }
+
+    @Override
+    public void appendBlock(int channel, float[] f, int off, int len)
+    {
+        if (channel == 0)
+        {
+            for (int i = off; i < off + len; i++)
+            {
+                add(clip(f[i]));
+            }
+        }
+    }
+
+    private void add(short value)
+    {
+        if (value != 0)
+        {
+            final int block = Math.min((int) (samples/blocksize), sums.length - 1);
+            sums[block] += LOG_SQUARE[value < 0 ? -value : value];
+        }
+        samples++;
+    }
+
+    @Override
+    public void write_buffer(int val)
+    {
+        // does nothing.
+    }
+
+    @Override
+    public void close()
+    {
+        // does nothing.
+    }
+
+    @Override
+    public void clear_buffer()
+    {
+        java.util.Arrays.fill(sums, 0.0);
+        samples = 0;
+    }
+
+    @Override
+    public void set_stop_flag()
+    {
+        // does nothing.
+    }
+}
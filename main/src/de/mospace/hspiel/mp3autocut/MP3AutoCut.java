@@ -18,11 +18,9 @@
 package de.mospace.hspiel.mp3autocut;
 
 import java.util.Iterator;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Properties;
-import java.util.TreeMap;
 import java.io.InputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
@@ -43,19 +41,18 @@ import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.net.URL;
 import java.net.URLConnection;
-import java.net.MalformedURLException;
-import java.net.URLClassLoader;
 
 /** <p>Cuts constant bitrate mp3 files based on audio patterns stored in a special directory.
     You can cut the audio files directly or generate project files for
     mp3DirectCut, which runs under Windows and Linux with wine. In mp3DirectCut you
     can adjust the cutpoints interactively.</p>
-    <p>MP3AutoCut objects cache search patterns internally.</p>
+    <p>MP3AutoCut objects cache search patterns internally. They watch the
+    marker directory for changes until they are {@link #close closed}.</p>
     <p>MP3AutoCut can only handle constant bitrate (CBR) mp3s.</p>
 
     @see <a href="http://mpesch3.de1.cc/mp3dc.html">mp3DirectCut</a>
 */
-public class MP3AutoCut{
+public class MP3AutoCut implements Closeable{
     /** The XPath expression used to retrieve the hoerdat xml element containing
         the duration of the audio recording.
      **/
@@ -139,8 +136,8 @@ public class MP3AutoCut{
     private final boolean bWriteMPD;
 
     /** cache for searches */
-    private final Map<String, MultiStepSearch> searchCache
-            = new TreeMap<String, MultiStepSearch>();
+    private final SearchCache searchCache = new SearchCache(this,
+        Integer.parseInt(System.getProperty("maxPatterns", "64")));
 
     /** Search strategies for start and end. */
     private final SearchStep[][] strategies =
@@ -149,7 +146,18 @@ public class MP3AutoCut{
             MultiStepSearch.getOutStrategy()
         };
 
-    private final ClassLoader markerLoader;
+    /** Runs the downloads and the extraction of default markers. */
+    private final static ExecutorService MARKER_IO = Executors.newCachedThreadPool(
+        new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable r){
+                final Thread t = new Thread(r, "MP3AutoCut marker I/O");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final MarkerCatalog markers;
 
     /** Constructs a new MP3AutoCut that produces both mp3DirectCut project files and cropped mp3s. */
     public MP3AutoCut(){
@@ -170,21 +178,29 @@ public class MP3AutoCut{
         } catch (Exception ex){
             System.err.println(ex.getMessage());
         }
+        /* default markers in defaultMarkers.jar take precedence
+           over those in mp3autocut.jar */
+        final List<File> defaultMarkers = new ArrayList<File>();
         try{
-            File defaultMarkers = new File(getSettingDirectory(), "defaultMarkers.jar");
-            List<URL> markerLocations = new ArrayList<URL>();
-            markerLocations.add(getMarkerDirectory().toURI().toURL());
-            if (defaultMarkers.isFile()){
-                markerLocations.add(defaultMarkers.toURI().toURL());
-            }
-            markerLoader = new URLClassLoader(
-                markerLocations.toArray(new URL[markerLocations.size()]),
-                String.class.getClassLoader()
-            );
-
-        } catch (MalformedURLException urlx){
-            throw new Error(urlx);
+            final URL app = MP3AutoCut.class.getProtectionDomain().getCodeSource().getLocation();
+            defaultMarkers.add(new File(app.toURI()));
+        } catch (Exception ex){
+            System.err.println("Cannot find the default markers in mp3autocut.jar: " + ex);
         }
+        defaultMarkers.add(new File(getSettingDirectory(), "defaultMarkers.jar"));
+        markers = new MarkerCatalog(getMarkerDirectory(),
+            defaultMarkers.toArray(new File[defaultMarkers.size()]),
+            MARKER_IO);
+    }
+
+    /** Stops watching the marker directory. The MP3AutoCut can still be
+        used afterwards, but it then lists the marker directory whenever
+        it looks for a marker.
+        @exception IOException if the watch service cannot be closed
+    */
+    @Override
+    public void close() throws IOException{
+        markers.close();
     }
 
 
@@ -213,19 +229,18 @@ public class MP3AutoCut{
         /* setConnectTimeout does not work properly. Therefore we
            use another thread and time that thread. */
         //uc.connect();
-        final ExecutorService connect = Executors.newSingleThreadExecutor();
+        final Future<Object> connect = MARKER_IO.submit(new Callable<Object>(){
+                @Override
+                public Object call() throws Exception{
+                    uc.connect();
+                    return null;
+                }
+        });
         try{
-            connect.submit(new Callable<Object>(){
-                    @Override
-                    public Object call() throws Exception{
-                        uc.connect();
-                        return null;
-                    }
-            }).get(500, TimeUnit.MILLISECONDS);
+            connect.get(500, TimeUnit.MILLISECONDS);
         } catch (Exception ex){
+            connect.cancel(true);
             throw new IOException("Failed to connect to " + url, ex);
-        } finally {
-            connect.shutdown();
         }
 
         final long urlDate = uc.getLastModified();
@@ -281,26 +296,48 @@ public class MP3AutoCut{
     /** Cuts multiple mp3 files.
     This method uses all available processors and is therefore
     much faster than repeatedly invoking the single-argument cut method
-    on multicore machines.
+    on multicore machines. The cut points of each file are printed to
+    System.out in the order of the input files, errors and files without
+    cut points to System.err.
 
     @param mp3 the input files to process
     @param outputdir where to store the cropped mp3s
 
     @see #cut(File, File)
+    @see #submit(File[], File)
     **/
     public void cut(File[] mp3, File outputdir) throws InterruptedException{
-        int numThreads =
-            Math.min(Runtime.getRuntime().availableProcessors(), mp3.length);
-        final String pMaxThreads = System.getProperty("maxThreads");
-        if (pMaxThreads != null){
-            numThreads = Math.min(Integer.valueOf(pMaxThreads), numThreads);
-        }
-        final ExecutorService exec = Executors.newFixedThreadPool(numThreads);
-        for (File f : mp3){
-            exec.execute(new CutJob(f, outputdir));
+        final List<Future<CutResult>> results = submit(mp3, outputdir);
+        for (int i = 0; i < mp3.length; i++){
+            try{
+                final CutResult result = results.get(i).get();
+                if (result.hasCutpoints()){
+                    System.out.print(result + " \n");
+                } else {
+                    System.err.println(mp3[i].getName() + " No cutpoints found.");
+                }
+            } catch (ExecutionException ex){
+                ex.getCause().printStackTrace();
+                System.err.println(ex.getCause());
+            }
         }
-        exec.shutdown();
-        exec.awaitTermination(mp3.length * 5, TimeUnit.MINUTES);
+    }
+
+    /** Starts to cut multiple mp3 files and returns immediately.
+    No more than <code>-DmaxReaders</code> files (default 2) are read at
+    the same time, largest first. The remaining processors, up to
+    <code>-DmaxThreads</code>, search these files in segments,
+    see {@link MultiStepSearch#search(File, MultiStepSearch[], ForkJoinPool)}.
+
+    @param mp3 the input files to process
+    @param outputdir where to store the cropped mp3s
+    @return for each input file, in the same order, the future result
+        of {@link #cut(File, File)}
+    **/
+    public List<Future<CutResult>> submit(File[] mp3, File outputdir){
+        final int maxThreads = CutScheduler.maxThreads();
+        return new CutScheduler(this, maxThreads, CutScheduler.maxReaders(maxThreads))
+            .submit(mp3, outputdir);
     }
 
     /** Cuts a single MP3 audio file.
@@ -315,8 +352,7 @@ public class MP3AutoCut{
             (case insensitive) and .pattern extension. The .pattern files can
             be thought of as a compiled form of the audio pattern. They are
             generated by MP3AutoCut whenever a new mp3 pattern is read.
-            <em>If you change an mp3 audio pattern you must remove the
-            corresponding .pattern file</em>.</li>
+            They are regenerated when the mp3 pattern is newer.</li>
          <li>If no .pattern file is found MP3AutoCut looks for a pattern with
              .mp3 extension.</li>
     </ol>
@@ -340,13 +376,50 @@ public class MP3AutoCut{
     @param in the input mp3 file
     @param out the location of the cropped audio file.
                Can be <code>null</code> if {@link #getCrop crop} is false.
+    @return the cut points, see {@link CutResult#hasCutpoints}
 
      @see #cut(File[], File)
      @see #getMarkerDirectory
     **/
-    public void cut(File in, File out) throws IOException, MP3SearchException{
-        MP3Position start = getStart(in);
-        MP3Position end = getEnd(in, start);
+    public CutResult cut(File in, File out) throws IOException, MP3SearchException{
+        return cut(in, out, null);
+    }
+
+    /** Cuts a single MP3 audio file like {@link #cut(File, File)}.
+    @param pool the pool on which to search the input in segments,
+        may be <code>null</code> to search in a single thread
+    **/
+    CutResult cut(File in, File out, ForkJoinPool pool)
+    throws IOException, MP3SearchException{
+        final CutResult result = locate(in, pool);
+        if (result.hasCutpoints()){
+            /* write mp3directcut cue sheet */
+            if (bWriteMPD){
+                writeMPD(toMP3File(in), result.getStartOffset(), result.getEndOffset());
+            }
+
+            /* do cut */
+            if (crop){
+                crop(in, out, result.getStartOffset(), result.getEndOffset());
+            }
+        }
+        return result;
+    }
+
+    /** Searches the cut points of a single MP3 audio file.
+    @param pool the pool on which to search the input in segments,
+        may be <code>null</code> to search in a single thread
+    **/
+    private CutResult locate(File in, ForkJoinPool pool)
+    throws IOException, MP3SearchException{
+        /* search start and end pattern in the same passes over the input
+           or in parallel segments */
+        final SearchResult[] results = MultiStepSearch.search(in,
+            new MultiStepSearch[]{ getSearch(in, START), getSearch(in, END) },
+            pool);
+        MP3Position start = (results[START] == null) ? null : results[START].getEnd();
+        MP3Position end = (results[END] == null) ? null : results[END].getStart();
+        end = getHoerdatEnd(in, start, end);
 
         final int tstart = (start == null) ? 0 : start.getTimeMillis();
         final int tend   = (end == null) ? Integer.MAX_VALUE : end.getTimeMillis();
@@ -359,48 +432,30 @@ public class MP3AutoCut{
 
         final long offsetStart = (start == null) ? 0l : start.getByteOffset();
         final long length = in.length();
-        long offsetEnd = (end == null) ? length : end.getByteOffset();
-        if(offsetStart != 0l || offsetEnd < length){
-            offsetEnd = Math.min(offsetEnd, length);
-            System.out.printf(
-                (Locale) null,
-                "%s %.2f %.2f %d %d %02d.%02d.%02d %02d.%02d.%02d \n",
-                in.getName(),
-                tstart/1000.,
-                tend/1000.,
-                offsetStart,
-                offsetEnd,
-                tstart/60000, // whole minutes
-                (tstart/1000) % 60, // whole seconds
-                (tstart % 1000)/10, // centiseconds
-                tend/60000,
-                (tend/1000) % 60,
-                (tend % 1000)/10);
-
-            /* write mp3directcut cue sheet */
-            if (bWriteMPD){
-                writeMPD(toMP3File(in), offsetStart, offsetEnd);
-            }
+        final long offsetEnd = (end == null) ? length : Math.min(end.getByteOffset(), length);
+        return new CutResult(in, tstart, tend, offsetStart, offsetEnd);
+    }
 
-            /* do cut */
-            if (crop){
-                final long bytesToTransfer = offsetEnd - offsetStart;
-                FileChannel cin = (new FileInputStream(in)).getChannel();
-                try{
-                    FileChannel cout = (new FileOutputStream(out)).getChannel();
-                    try{
-                        if(bytesToTransfer != cin.transferTo(offsetStart, bytesToTransfer, cout)){
-                            throw new IOException("Not all bytes copied.");
-                        }
-                    } finally {
-                        cout.close();
-                    }
-                } finally {
-                    cin.close();
+    /** Copies the selected bytes of an mp3 file to a new file.
+        @param in the input mp3 file
+        @param out the cropped mp3 file
+        @param offsetStart the beginning of the selection as a byte offset from the beginning of the file
+        @param offsetEnd the end of the selection as a byte offset from the beginning of the file
+      */
+    private static void crop(File in, File out, long offsetStart, long offsetEnd) throws IOException{
+        final long bytesToTransfer = offsetEnd - offsetStart;
+        FileChannel cin = (new FileInputStream(in)).getChannel();
+        try{
+            FileChannel cout = (new FileOutputStream(out)).getChannel();
+            try{
+                if(bytesToTransfer != cin.transferTo(offsetStart, bytesToTransfer, cout)){
+                    throw new IOException("Not all bytes copied.");
                 }
+            } finally {
+                cout.close();
             }
-        }  else {
-            System.err.println(in.getName() + " No cutpoints found.");
+        } finally {
+            cin.close();
         }
     }
 
@@ -456,7 +511,19 @@ public class MP3AutoCut{
     }
 
     public MP3Position getEnd(File mp3, MP3Position start) throws MP3SearchException, IOException{
-        MP3Position result = getEnd(mp3);
+        return getHoerdatEnd(mp3, start, getEnd(mp3));
+    }
+
+    /** Returns the end position from the hoerdat xml file that accompanies
+        the specified mp3 if it is earlier than the specified end position.
+        @param mp3 the mp3 audio file
+        @param start the start position of the cut or <code>null</code>
+        @param end the end position of the cut or <code>null</code>
+        @return the earlier of the hoerdat end position and <code>end</code>
+    */
+    private MP3Position getHoerdatEnd(File mp3, MP3Position start, MP3Position end)
+    throws MP3SearchException, IOException{
+        MP3Position result = end;
         int tend = (result == null) ? Integer.MAX_VALUE : result.getTimeMillis();
         final File hoerdatxml = new File(mp3.getAbsolutePath().replaceAll("\\.[mM][pP]3$", ".xml"));
 
@@ -530,78 +597,56 @@ public class MP3AutoCut{
         return result;
     }
 
-    /** Loads the specified search from the marker directory.
+    /** Finds the marker file for the specified search in the marker
+     catalog. Default markers are extracted to the marker directory.
      @param key the name of the search, usually a cropped mp3 file name
-     @param which either {@link #START} or {@link #END}
 
-     @return the search for the given parameters of null if no such search is found
+     @return the ".pattern" or ".mp3" marker file or null if no such marker is found
     */
-    private MultiStepSearch loadSearch(String key, int which)
-            throws IOException, MP3SearchException{
-        MultiStepSearch search = null;
-        final File markerDir = getMarkerDirectory();
-        //System.err.println(java.util.Arrays.asList(((URLClassLoader) markerLoader).getURLs()));
-
-        /* Look for ".pattern" marker in marker directory */
-        URL markerURL = markerLoader.getResource(key + ".pattern");
-
-        /* Look for ".mp3" marker in marker directory */
-        if (markerURL == null){
-            markerURL = markerLoader.getResource(key + ".mp3");
-        }
-
-        /* Look for default ".pattern" marker in defaultMarkers.jar */
-        if (markerURL == null){
-            markerURL = markerLoader.getResource("markers/" + key + ".pattern");
+    File findMarker(String key){
+        final File marker = markers.find(key);
+        if (marker == null){
+            System.err.println("No marker " +  key +".*");
         }
+        return marker;
+    }
 
-        /* Look for default ".pattern" marker in mp3autocut.jar */
-        if(markerURL == null){
-            markerURL = getClass().getClassLoader().getResource("markers/" + key + ".pattern");
-        }
+    /** Loads the specified search from a marker file.
+     @param f the marker file returned by {@link #findMarker}
+     @param key the name of the search, usually a cropped mp3 file name
+     @param which either {@link #START} or {@link #END}
 
-        /* Extract ".pattern" marker from jar to marker directory */
-        if (markerURL != null && "jar".equals(markerURL.getProtocol())){
-            final File extracted = new File(markerDir, key + ".pattern");
-            try{
-                download(markerURL, extracted);
-                markerURL = extracted.toURI().toURL();
-            } catch (IOException ex){
-                System.err.println(ex);
-                markerURL = null;
-                if (extracted.isFile()){
-                    extracted.delete();
-                }
+     @return the search for the given parameters
+    */
+    MultiStepSearch loadSearch(File f, String key, int which)
+            throws IOException, MP3SearchException{
+        MultiStepSearch search;
+        try{
+            search = new MultiStepSearch(f,  strategies[which]);
+        } catch (MP3SearchException ex){
+            /* recompile a corrupt .pattern marker or one of an unsupported version */
+            final File mp3 = new File(f.getParentFile(), key + ".mp3");
+            if (!f.getName().endsWith(".pattern") || !mp3.isFile()){
+                throw ex;
             }
+            System.err.println(ex.getMessage());
+            f = mp3;
+            search = new MultiStepSearch(f,  strategies[which]);
         }
-
-        /* No markers. Return null. */
-        if (markerURL == null){
-            System.err.println("No marker " +  key +".*");
-        } else {
-            File f = null;
+        //System.err.println("Loading " + f.getName());
+        if (f.getName().endsWith(".mp3")){
+            /* Serialize processed marker */
+            File patternFile = new File(getMarkerDirectory(), key + ".pattern");
             try{
-                f = new File(markerURL.toURI());
-            } catch (java.net.URISyntaxException ex){
-                throw new Error(ex);
-            }
-            search = new MultiStepSearch(f,  strategies[which]);
-            //System.err.println("Loading " + f.getName());
-            if (f.getName().endsWith(".mp3")){
-                /* Serialize processed marker */
-                File patternFile = new File(markerDir, key + ".pattern");
-                try{
-                    search.writePattern(patternFile);
-                } catch (Exception ex){
-                    System.err.println(ex);
-                    /* delete pattern file if serialization failed.*/
-                    if (patternFile.isFile()){
-                        patternFile.delete();
-                    }
+                search.writePattern(patternFile);
+            } catch (Exception ex){
+                System.err.println(ex);
+                /* delete pattern file if serialization failed.*/
+                if (patternFile.isFile()){
+                    patternFile.delete();
                 }
             }
         }
-
         return search;
     }
 
@@ -609,20 +654,18 @@ public class MP3AutoCut{
      @param key the name of the search, usually a cropped mp3 file name
      @param which either {@link #START} or {@link #END}
      @return the search for the given parameters of null if no such search is found
+     @see SearchCache
     */
-    private synchronized MultiStepSearch getSearch(File mp3, int which)
+    private MultiStepSearch getSearch(File mp3, int which)
             throws IOException, MP3SearchException{
         final String key = mp3.getName().replaceAll("\\d{4}\\-\\d{2}\\-\\d{2}\\.mp3$", "")
         + ( (which == START)? "start" : "end" );
-        if(!searchCache.containsKey(key)){
-            searchCache.put(key, loadSearch(key, which));
-        }
-        return searchCache.get(key);
+        return searchCache.get(key, which);
     }
 
     /** Clears the internal search cache. Forces all start and end
     patterns to be reloaded. */
-    public synchronized void clearSearchCache(){
+    public void clearSearchCache(){
         searchCache.clear();
     }
 
@@ -644,7 +687,7 @@ public class MP3AutoCut{
     Tries to create the directory if it does not exist.
     @return the MP3AutoCut setting directory
     */
-    private static File getSettingDirectory(){
+    static File getSettingDirectory(){
         String result = null;
         /* System.getenv throws a java.lang.Error in Java 1.4
          * therefore we need to protect the call to System.getenv */
@@ -713,7 +756,15 @@ public class MP3AutoCut{
             System.err.println("Patterns are read from " + getMarkerDirectory());
             MP3AutoCut cutter = new MP3AutoCut(cmdline.getWriteMP3(),
                 cmdline.getWriteMPD());
-            cutter.cut(cmdline.getMP3s(), cmdline.getOutputDir());
+            try{
+                if (cmdline.getWatch()){
+                    new WatchDaemon(cutter, cmdline.getMP3s(), cmdline.getOutputDir()).run();
+                } else {
+                    cutter.cut(cmdline.getMP3s(), cmdline.getOutputDir());
+                }
+            } finally {
+                cutter.close();
+            }
         } catch (Exception ex){
             MP3AutoCutCmdLine.printHelp();
             System.err.println();
@@ -724,30 +775,4 @@ public class MP3AutoCut{
         }
 
     }
-
-    /** Wraps a single call to the {@link cut(File, File)} method.
-    Exceptions thrown by cut are caught and printed on System.err.
-    */
-    private class CutJob implements Runnable{
-        private final File mp3;
-        private final File outputdir;
-
-        public CutJob(File mp3, File outputdir){
-            this.mp3 = mp3;
-            this.outputdir = outputdir;
-        }
-
-        @Override
-        public void run(){
-            try{
-                cut(mp3, (outputdir == null)
-                    ? null
-                    : new File(outputdir, mp3.getName())
-                 );
-            } catch (Exception ex){
-                ex.printStackTrace();
-                System.err.println(ex);
-            }
-        }
-    }
 }
@@ -26,12 +26,14 @@ import java.io.IOException;
 class MP3AutoCutCmdLine{
     private boolean writeMPD = false;
     private boolean writeMP3 = false;
+    private boolean watch = false;
     private File targetdir = null;
     private File[] mp3s = new File[0];
 
     private static final String NEA = "Not enough arguments";
     private static final String WRITE_MPD = "mpd";
     private static final String WRITE_MP3 = "mp3";
+    private static final String WATCH = "watch";
 
 
     public MP3AutoCutCmdLine(String[] argv) throws Exception{
@@ -42,7 +44,14 @@ class MP3AutoCutCmdLine{
                 throw new IllegalArgumentException(NEA);
             }
 
-            final String command = argv[k++];
+            String command = argv[k++];
+            if (WATCH.equals(command)){
+                watch = true;
+                if(nargs == k){
+                    throw new IllegalArgumentException(NEA);
+                }
+                command = argv[k++];
+            }
             if (WRITE_MPD.equals(command)){
                 writeMPD = true;
             } else if (WRITE_MP3.equals(command)){
@@ -65,7 +74,11 @@ class MP3AutoCutCmdLine{
             mp3s = new File[nargs - k];
             for (int j = 0; k < nargs; k++){
                 mp3s[j] = new File(argv[k]);
-                if (!mp3s[j++].isFile()){
+                if (watch){
+                    if (!mp3s[j++].isDirectory()){
+                        throw new IllegalArgumentException(argv[k] + " is not a directory.");
+                    }
+                } else if (!mp3s[j++].isFile()){
                     throw new java.io.FileNotFoundException(argv[k] + " is not a file.");
                 }
             }
@@ -79,10 +92,18 @@ class MP3AutoCutCmdLine{
         return writeMP3;
     }
 
+    /** Returns whether to watch directories instead of cutting files,
+        see {@link WatchDaemon}. */
+    public boolean getWatch(){
+        return watch;
+    }
+
     public File getOutputDir(){
         return targetdir;
     }
 
+    /** Returns the mp3 files, or the directories to watch if
+        {@link #getWatch} is true. */
     public File[] getMP3s(){
         return mp3s;
     }
@@ -109,6 +130,10 @@ class MP3AutoCutCmdLine{
         sb.append("\tjava -jar mp3autocut.jar mpd MP3FILE1 [MP3FILE2 ...]\n");
         sb.append("OR\n");
         sb.append("\tjava -jar mp3autocut.jar mp3 OUTPUTDIR MP3FILE1 [MP3FILE2 ...]\n");
+        sb.append("OR\n");
+        sb.append("\tjava -jar mp3autocut.jar watch mpd DIR1 [DIR2 ...]\n");
+        sb.append("OR\n");
+        sb.append("\tjava -jar mp3autocut.jar watch mp3 OUTPUTDIR DIR1 [DIR2 ...]\n");
         return sb.toString();
     }
 
@@ -17,7 +17,6 @@
 package de.mospace.hspiel.mp3autocut;
  
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
 public class MP3Position
@@ -39,70 +38,38 @@ public class MP3Position
         return MP3Position.getPositionsForFrameCounts(new int[]{framecount}, mp3)[0];
     }
 
+    /** Returns the positions after the specified numbers of frames.
+        @param framecounts the numbers of frames
+        @param mp3 the mp3 file
+        @return the positions, <code>null</code> for frame counts that
+            exceed the number of frames of the file
+        @see FrameIndex
+    */
     public static MP3Position[] getPositionsForFrameCounts(int[] framecounts, File mp3)
     throws IOException, MP3SearchException
     {
-        final FileInputStream smp3 = new FileInputStream(mp3);
-
+        final FrameIndex index = FrameIndex.get(mp3);
         MP3Position[] result = new MP3Position[framecounts.length];
-
-        try
+        for (int i = 0; i < framecounts.length; i++)
         {
-            MP3Reader reader = new MP3Reader(smp3);
-            for (int i=0; reader.hasMoreFrames(); reader.readFrame(false))
-            {
-                if (reader.getFrameCount() >= framecounts[i])
-                {
-                    result[i++] = new MP3Position(
-                        reader.getMillis(),
-                        reader.getFrameCount(),
-                        reader.getPosition());
-
-                    if(i == framecounts.length)
-                    {
-                        break;
-                    }
-                }
-            }
-        }
-        finally
-        {
-            /* close the input stream */
-            smp3.close();
+            result[i] = index.getPositionForFrameCount(framecounts[i]);
         }
 
         return result;
     }
 
-
+    /** Returns the position after the least number of frames whose
+        playing time is at least the specified time.
+        @param time_ms the playing time in milliseconds
+        @param mp3 the mp3 file
+        @return the position or <code>null</code> if the playing time of
+            the file is shorter
+        @see FrameIndex
+    */
     public static MP3Position getPositionForTime(int time_ms, File mp3)
     throws IOException, MP3SearchException
     {
-        final FileInputStream smp3 = new FileInputStream(mp3);
-        MP3Position result = null;
-
-        try
-        {
-            MP3Reader reader = new MP3Reader(smp3);
-            while(reader.hasMoreFrames() && reader.getMillis() < time_ms)
-            {
-                reader.readFrame(false);
-            }
-
-            if(reader.getMillis() >= time_ms)
-            {
-                result = new MP3Position(
-                    reader.getMillis(),
-                    reader.getFrameCount(),
-                    reader.getPosition());
-            }
-        }
-        finally
-        {
-            smp3.close();
-        }
-
-        return result;
+        return FrameIndex.get(mp3).getPositionForTime(time_ms);
     }
 
     public int getTimeMillis()
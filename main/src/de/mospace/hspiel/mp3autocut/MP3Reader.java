@@ -17,7 +17,10 @@
  
 package de.mospace.hspiel.mp3autocut;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ShortBuffer;
 import javazoom.jl.decoder.*;
 
@@ -34,21 +37,81 @@ public class MP3Reader
     long position = 0;
     static public final int BUFFER_SIZE = 6144;
     private final ShortBuffer output = ShortBuffer.allocate(BUFFER_SIZE);
+    private LoudnessOBuffer loudness = null;
+    private final int quality;
+    private FrameScanner scanner = null;
+
+    /**
+     * Creates a new converter instance that can skip frames without
+     * reading them, see {@link #skipFrames}.
+     * @param in the mp3 input
+     */
+    public MP3Reader(FileInputStream in) throws IOException
+    {
+        this(in, Decoder.Params.HIGH_QUALITY);
+    }
+
+    /**
+     * Creates a new converter instance that can skip frames without
+     * reading them, see {@link #skipFrames}, and that decodes the
+     * samples at the specified quality. The frames are read from a
+     * memory mapping of the file, see {@link Bitstream#Bitstream(java.nio.channels.FileChannel)}.
+     * @param in the mp3 input
+     * @param quality the quality of the decoded samples, see
+     *     {@link Decoder.Params#setQuality}
+     */
+    public MP3Reader(FileInputStream in, int quality) throws IOException
+    {
+        this(new Bitstream(in.getChannel()), quality);
+        this.scanner = new FrameScanner(in.getChannel());
+    }
 
     /**
      * Creates a new converter instance.
      */
     public MP3Reader(InputStream in)
     {
-        this.stream = new Bitstream(in);/*new Bitstream(
-            (in instanceof BufferedInputStream)
-            ? (BufferedInputStream) in
-            : new BufferedInputStream(in)
-        );*/
+        this(in, Decoder.Params.HIGH_QUALITY);
+    }
+
+    /**
+     * Creates a new converter instance that decodes the samples at the
+     * specified quality. At reduced quality, fewer samples per frame
+     * are decoded at a lower sample frequency.
+     * @param in the mp3 input
+     * @param quality the quality of the decoded samples, see
+     *     {@link Decoder.Params#setQuality}
+     */
+    public MP3Reader(InputStream in, int quality)
+    {
+        this(new Bitstream(in), quality);
+    }
+
+    private MP3Reader(Bitstream stream, int quality)
+    {
+        this.stream = stream;
         final Decoder.Params decoderParams = Decoder.getDefaultParams();
         decoderParams.setOutputChannels(OutputChannels.DOWNMIX);
+        decoderParams.setQuality(quality);
         decoder = new Decoder(decoderParams);
         decoder.setOutputBuffer(new ShortOBuffer(output));
+        this.quality = quality;
+    }
+
+    /** Makes the reader compute the loudness of each decoded frame
+        instead of storing its samples in the {@link #getOutput output}.
+        Must be called before the first frame is read.
+        @return the loudness of the frames read, see
+            {@link LoudnessOBuffer#frameLoudness}
+        @throws IllegalStateException if a frame has been read
+    */
+    public LoudnessOBuffer createLoudnessOutput(){
+        if (frameCount > 0){
+            throw new IllegalStateException("Frames have been read.");
+        }
+        loudness = new LoudnessOBuffer();
+        decoder.setOutputBuffer(loudness);
+        return loudness;
     }
 
     public void close() throws MP3SearchException{
@@ -99,7 +162,58 @@ public class MP3Reader
         return stream.getPosition();
     }
 
+    /** Skips frames without reading them until the playing time of the
+        frames read reaches the specified time. Only frames whose headers
+        the {@link FrameScanner} can parse are skipped, and only after the
+        first frame has been read. If the reader has not been created
+        from a FileInputStream, no frames are skipped.
+        @param millis the playing time in milliseconds
+        @return the number of frames skipped
+    */
+    public int skipFrames(int millis) throws MP3SearchException{
+        int skipped = 0;
+        if (scanner != null && header != null && moreFrames){
+            /* version, layer and sample frequency are those of the first frame */
+            final int syncHeader = header.getSyncHeader();
+            final int version = header.version();
+            final float ms = header.ms_per_frame();
+            final long offset = stream.getPosition();
+            long bytes = 0;
+            while ((int) milliseconds < millis){
+                final int length = scanner.frameLength(offset + bytes, syncHeader, version);
+                if (length < 0){
+                    break;
+                }
+                bytes += length;
+                position += length;
+                frameCount++;
+                milliseconds += ms;
+                skipped++;
+            }
+
+            try{
+                stream.skipBytes(bytes);
+            } catch (BitstreamException bex){
+                throw new MP3SearchException(bex);
+            }
+        }
+        return skipped;
+    }
+
     public void readFrame(boolean decode) throws MP3SearchException{
+        readFrame(decode, null);
+    }
+
+    /** Reads a single frame and estimates the energy of its granules
+        from the bitstream, without synthesizing samples unless decode is true.
+        See {@link Decoder#decodeFrameEnergy}.
+        @param decode whether to decode the samples of the frame to the output
+        @param energy receives the energy of each granule of the frame, may be
+            <code>null</code> if no energy is to be estimated
+        @return the number of granules whose energy has been estimated
+    */
+    public int readFrame(boolean decode, float[] energy) throws MP3SearchException{
+        int granules = 0;
         try{
             Header xheader = stream.readFrame();
             if (xheader == null){
@@ -113,7 +227,12 @@ public class MP3Reader
                 position += header.framesize + 4; // 4 bytes header size
                 frameCount++;
                 milliseconds += header.ms_per_frame();
-                if(decode){
+                if (loudness != null){
+                    loudness.setFrameSamples(samplesPerFrame(header) / quality);
+                }
+                if(energy != null){
+                    granules = decoder.decodeFrameEnergy(header, stream, energy, decode);
+                } else if(decode){
                     decoder.decodeFrame(header, stream);
                 }
                 stream.closeFrame();
@@ -123,6 +242,20 @@ public class MP3Reader
         } catch (DecoderException dex){
             throw new MP3SearchException(dex);
         }
+        return granules;
+    }
+
+    /** Returns the number of samples per channel of a frame at full
+        quality. */
+    private static int samplesPerFrame(Header h){
+        switch (h.layer()){
+            case 1:
+                return 384;
+            case 3:
+                return (h.version() == Header.MPEG1) ? 1152 : 576;
+            default:
+                return 1152;
+        }
     }
 
     public static class ShortOBuffer extends Obuffer{
@@ -142,6 +275,30 @@ public class MP3Reader
             }
         }
 
+        /** Clips the samples of channel 0 to 16 bit and puts them into
+            the buffer in one go. */
+        @Override
+        public void appendBlock(int channel, float[] f, int off, int len){
+            if (channel != 0){
+                return;
+            }
+            if (buff.hasArray()){
+                final short[] array = buff.array();
+                final int start = buff.arrayOffset() + buff.position();
+                if (len > buff.remaining()){
+                    throw new BufferOverflowException();
+                }
+                for (int i = 0; i < len; i++){
+                    array[start + i] = clip(f[off + i]);
+                }
+                buff.position(buff.position() + len);
+            } else {
+                for (int i = off; i < off + len; i++){
+                    buff.put(clip(f[i]));
+                }
+            }
+        }
+
         @Override
         public void close(){
             // does nothing.
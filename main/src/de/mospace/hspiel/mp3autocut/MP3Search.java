@@ -20,10 +20,16 @@ package de.mospace.hspiel.mp3autocut;
 import java.io.*;
 import java.nio.*;
 import java.nio.channels.FileChannel;
-import org.apache.commons.math.transform.FastFourierTransformer;
-import org.apache.commons.math.complex.Complex;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import javazoom.jl.decoder.Decoder;
 
 /**
 A precompiled search for a particular mp3 audio pattern.
@@ -31,12 +37,63 @@ A precompiled search for a particular mp3 audio pattern.
 public class MP3Search
 {
     private final static double LN10 = Math.log(10);
-    private final static int POINTS_PER_FRAME = 2;
+    final static int POINTS_PER_FRAME = 2;
+
+    /** The number of samples of a layer III granule. */
+    final static int SAMPLES_PER_GRANULE = 576;
+
+    /** Scales the energy of a granule to approximately the sum of the
+        square amplitudes of its 16 bit samples. The synthesis filter has
+        a gain of about 64 in energy. */
+    private final static double ENERGY_SCALE = 64 * 32700.0 * 32700.0;
+
+    /** The quality at which the samples whose loudness is compared are
+        decoded, see {@link MP3Reader#MP3Reader(InputStream, int)}.
+        The loudness envelope does not need the full bandwidth, and
+        half the sample frequency halves the cost of the IMDCT and of
+        the polyphase synthesis. */
+    final static int SYNTHESIS_QUALITY = Decoder.Params.MEDIUM_QUALITY;
+
+    /* The compiled pattern format written by writePattern. All values are
+       big endian. The header is followed by the fourier transform sizes,
+       the reversed, normalized pattern and, for each transform size, the
+       real and the imaginary parts of the spectrum, see getSpectrum.
+       Version 1 files hold the pattern doubles only, decoded at full
+       quality, and are searched at full quality. Version 2 files have
+       a header of V2_HEADER_SIZE bytes without the synthesis quality
+       and the samples per frame, and have been decoded at
+       SYNTHESIS_QUALITY.
+
+       header: magic "MP3ACPAT" (long), version (int), flags (int),
+               synthesis quality (int), samples per frame (int),
+               pattern length (int), number of spectra (int),
+               CRC32 of everything after the header (long) */
+    private final static long PATTERN_MAGIC = 0x4D50334143504154L;
+    private final static int PATTERN_VERSION = 3;
+    private final static int PATTERN_HEADER_SIZE = 40;
+    private final static int V2_HEADER_SIZE = 32;
+    private final static int FLAG_FAST_ENVELOPE = 1;
 
     private final AtomicInteger samplesPerFrame = new AtomicInteger(0);
-    private final double[] zeroPaddedPattern;
-    private final Complex[] transformedPattern;
+    private final double[] pattern;
     private final int patternLength;
+    private final boolean fastEnvelope;
+
+    /* the quality at which the pattern and the searched files are
+       decoded, set when the pattern is read */
+    private int quality = SYNTHESIS_QUALITY;
+
+    /* the spectra of the zero-padded pattern by length, see RealFFT */
+    private final ConcurrentMap<Integer, double[][]> spectra =
+        new ConcurrentHashMap<Integer, double[][]>();
+
+    /* the spectra in the mapped pattern file by length,
+       copied to spectra when they are first used */
+    private final Map<Integer, DoubleBuffer> storedSpectra =
+        new HashMap<Integer, DoubleBuffer>();
+
+    /* block size and hop size of the overlap-save correlation */
+    private volatile int[] blockSize;
 
     /** Constructs a new MP3Search for the specified pattern.
     * @param patternFile a constant bitrate mp3 file with the audio pattern or
@@ -45,11 +102,54 @@ public class MP3Search
     * @exception MP3SearchException thrown when the pattern file is in an illegal format
     */
     public MP3Search(File patternFile) throws IOException, MP3SearchException{
-        final double[] pattern = readPattern(patternFile);
+        this(patternFile, false);
+    }
+
+    /** Constructs a new MP3Search for the specified pattern.
+    * @param patternFile a constant bitrate mp3 file with the audio pattern or
+    * a file produced by the {@link #writePattern} method of an MP3Search
+    * with the same envelope mode.
+    * @param fastEnvelope whether to compare the fast loudness envelope
+    * instead of the loudness of the decoded samples, see {@link #isFastEnvelope}
+    * @exception IOException thrown when the pattern file cannot be read
+    * @exception MP3SearchException thrown when the pattern file is in an illegal format
+    */
+    public MP3Search(File patternFile, boolean fastEnvelope)
+    throws IOException, MP3SearchException{
+        this.fastEnvelope = fastEnvelope;
+        this.pattern = readPattern(patternFile);
         this.patternLength = pattern.length;
-        this.zeroPaddedPattern = zeroPad(pattern, nextPowerOfTwo(3 * patternLength + 1));
-        //print(zeroPaddedPattern, "pattern.out");
-        this.transformedPattern = (new FastFourierTransformer()).transform(this.zeroPaddedPattern);
+        //print(pattern, "pattern.out");
+
+        /* about three quarters of each block yield correlations */
+        final int fftSize = nextPowerOfTwo(4 * patternLength);
+        setBlockSize(fftSize, fftSize - patternLength + 1);
+    }
+
+    /** Returns whether this search uses the fast loudness envelope.
+        The fast envelope is estimated from the global gain, the scale
+        factors and the huffman decoded spectral values of each granule
+        of the mp3 data. It skips dequantization, IMDCT and polyphase
+        synthesis and is therefore several times faster to compute than the
+        loudness of the decoded samples, but it is coarser. The fast
+        envelope is only available for layer III files, and the pattern and
+        the searched files are compared using the same kind of envelope.
+    */
+    public boolean isFastEnvelope()
+    {
+        return fastEnvelope;
+    }
+
+    /** Returns the quality at which the searched files are decoded,
+        see {@link MP3Reader#MP3Reader(InputStream, int)}. This is the
+        quality at which the pattern has been decoded:
+        {@link #SYNTHESIS_QUALITY} for mp3 patterns, full quality for
+        pattern files of version 1, and the quality recorded in the files
+        written by {@link #writePattern}.
+    */
+    int getQuality()
+    {
+        return quality;
     }
 
     /** Searches the specified time span of the specified file for the pattern.
@@ -70,7 +170,6 @@ public class MP3Search
 
         return result;
     }
-
     /** Searches the specified time span of the specified file for the pattern.
         @param mp3 the file to search
         @param tims the playing time in milliseconds at which to begin the search
@@ -80,236 +179,392 @@ public class MP3Search
     SearchResult searchStep(File mp3, int tims, int tfms)
     throws IOException, MP3SearchException
     {
-        final FileInputStream smp3 = new FileInputStream(mp3);
-        final FastFourierTransformer fft = new FastFourierTransformer();
+        final MultiPatternSearch pass = new MultiPatternSearch();
+        final int id = pass.add(this, tims, tfms);
+        return pass.searchSteps(mp3)[id];
+    }
+
+    /** Searches the specified time span of the specified file for the first
+        match of the pattern. The first match is the first peak of the
+        correlation that reaches the specified threshold and that is not
+        exceeded within one pattern length after the peak. The search stops
+        reading the file as soon as the first match is confirmed. If there is
+        no such peak, the result is the best match in the time span, as for
+        {@link #search(File, int, int)}.
+        This method is thread-safe.
+        @param mp3 the file to search
+        @param tims the playing time in milliseconds at which to begin the search
+        @param tfms the playing time in milliseconds at which to stop the search
+        @param threshold the least correlation of a match
+        @return a SearchResult indicating where the first or the best match was
+                found and how good the match was
+    */
+    public SearchResult searchFirstMatch(File mp3, int tims, int tfms, float threshold)
+    throws IOException, MP3SearchException{
+        final MultiPatternSearch pass = new MultiPatternSearch();
+        final int id = pass.add(this, tims, tfms, threshold);
+        return pass.search(mp3)[id];
+    }
 
-        /* Construct the search buffer */
-        final int twoPatternLengths = 2 * this.patternLength;
-        final DoubleBuffer db = DoubleBuffer.allocate(twoPatternLengths);
+    /** Searches the specified time span of the specified file for the pattern,
+        splitting the time span into segments that are decoded and correlated
+        in parallel on the specified pool. The result is the same as that of
+        {@link #search(File, int, int)}. Time spans that are too short to be
+        split, and files that cannot be searched in segments are searched
+        sequentially, see {@link SegmentedSearch}.
+        This method is thread-safe.
+        @param mp3 the file to search
+        @param tims the playing time in milliseconds at which to begin the search
+        @param tfms the playing time in milliseconds at which to stop the search
+        @param pool the pool on which to search the segments
+        @return a SearchResult indicating where the best match was found and how
+                good the match was
+    */
+    public SearchResult search(File mp3, int tims, int tfms, ForkJoinPool pool)
+    throws IOException, MP3SearchException{
+        SearchResult result = this.searchStep(mp3, tims, tfms, pool);
 
-        /* Start reading into the second half of the search buffer */
-        db.position(this.patternLength);
+        if (result != null)
+        {
+            result = result.fillInMissingPositionFields(mp3);
+        }
 
-        /*
-            Construct a double array that will serve as input to the
-            search(double[]) method and thus the fourier transformer.
-            Note that zeroPaddedPattern.length is a power of two
-            >= 3 * patternLength + 1;
-        */
-        final double[] data = new double[this.zeroPaddedPattern.length];
-        java.util.Arrays.fill(data, 0.0);
+        return result;
+    }
 
-        /* return values */
-        float maxCorr = 0;
-        int maxCorrFrames = 0;
+    /** Searches the specified time span of the specified file for the
+        pattern in segments on the specified pool.
+        @param pool the pool on which to search the segments, may be
+            <code>null</code> to search sequentially
+        @return a SearchResult whose Mp3Position fields carry only framecount information
+        @see #search(File, int, int, ForkJoinPool)
+    */
+    SearchResult searchStep(File mp3, int tims, int tfms, ForkJoinPool pool)
+    throws IOException, MP3SearchException
+    {
+        SearchResult result = null;
 
-        try
+        /* the loudness cache is computed from a decoder that starts at the beginning of the file */
+        if (pool != null && !(LoudnessEnvelope.isCacheEnabled() && !fastEnvelope
+                && quality == SYNTHESIS_QUALITY))
+        {
+            result = SegmentedSearch.search(this, mp3, tims, tfms, pool);
+        }
+
+        if (result == null)
+        {
+            result = searchStep(mp3, tims, tfms);
+        }
+
+        return result;
+    }
+
+    /** Creates a new sliding correlation of this pattern with the specified
+        time span of an mp3 input.
+        @param tims the playing time in milliseconds at which to begin the search
+        @param tfms the playing time in milliseconds at which to stop the search
+    */
+    Correlation newCorrelation(int tims, int tfms)
+    {
+        return newCorrelation(tims, tfms, Float.POSITIVE_INFINITY);
+    }
+
+    /** Creates a new sliding correlation of this pattern with the specified
+        time span of an mp3 input that ends at the first match.
+        @param tims the playing time in milliseconds at which to begin the search
+        @param tfms the playing time in milliseconds at which to stop the search
+        @param threshold the least correlation of a first match, see
+            {@link #searchFirstMatch}, or <code>Float.POSITIVE_INFINITY</code>
+            to search for the best match only
+    */
+    Correlation newCorrelation(int tims, int tfms, float threshold)
+    {
+        return new Correlation(tims, tfms, threshold);
+    }
+    /** Sets the block size and the hop size of the overlap-save
+        correlation used by subsequent searches.
+        Larger blocks need fewer fourier transform operations per
+        loudness value but more memory.
+        @param fftSize the number of loudness values per fourier transform,
+            a power of two &ge; the pattern length
+        @param hop the number of offsets whose correlation is computed per
+            block, between 1 and fftSize - patternLength + 1.
+    */
+    public void setBlockSize(int fftSize, int hop)
+    {
+        if (fftSize < patternLength || Integer.bitCount(fftSize) != 1)
         {
-            /* Open an MP3Reader on the input stream */
-            final MP3Reader reader = new MP3Reader(smp3);
+            throw new IllegalArgumentException("Block size " + fftSize +
+                " is not a power of two >= " + patternLength);
+        }
+        if (hop < 1 || hop > fftSize - patternLength + 1)
+        {
+            throw new IllegalArgumentException("Hop size " + hop +
+                " is not between 1 and " + (fftSize - patternLength + 1));
+        }
+        this.blockSize = new int[]{ fftSize, hop };
+    }
+
+    /** Returns the number of loudness values per fourier transform
+        of the overlap-save correlation. */
+    public int getBlockSize()
+    {
+        return blockSize[0];
+    }
+
+    /** Returns the number of offsets whose correlation is computed
+        per block of the overlap-save correlation. */
+    public int getHopSize()
+    {
+        return blockSize[1];
+    }
+
+    /** Returns the number of loudness values of the pattern. */
+    int getPatternLength()
+    {
+        return patternLength;
+    }
 
-            /* set input position to tims */
-            while (reader.hasMoreFrames() && reader.getMillis() < tims)
+    /** Returns the spectrum of the reversed pattern zero-padded to the
+        specified length.
+        @param fftSize a power of two &ge; the pattern length
+        @return the real and the imaginary parts of the spectrum, see {@link RealFFT}
+    */
+    double[][] getSpectrum(int fftSize)
+    {
+        double[][] result = spectra.get(fftSize);
+        if (result == null)
+        {
+            result = new double[2][fftSize/2 + 1];
+            final DoubleBuffer stored = storedSpectra.get(fftSize);
+            if (stored == null)
             {
-                reader.readFrame(false);
+                final double[] padded = zeroPad(pattern, fftSize);
+                RealFFT.getInstance(fftSize).forward(padded, result[0], result[1]);
             }
+            else
+            {
+                final DoubleBuffer d = stored.duplicate();
+                d.get(result[0]);
+                d.get(result[1]);
+            }
+            final double[][] previous = spectra.putIfAbsent(fftSize, result);
+            if (previous != null)
+            {
+                result = previous;
+            }
+        }
+        return result;
+    }
 
-            /* Start search */
-            boolean isInitialBufferFill = true;
-            while (reader.hasMoreFrames() && reader.getMillis() <= tfms)
+    /** The sliding correlation of this pattern with a single time span of an
+        mp3 input. The loudness of the input is pushed into the correlation
+        frame by frame and correlated with the pattern by a
+        {@link StreamingCorrelator}. The correlation ends early when
+        the first peak that reaches its threshold is confirmed.
+        Correlation objects are not thread-safe.
+    */
+    final class Correlation implements StreamingCorrelator.PeakListener
+    {
+        private final int tims;
+        private final int tfms;
+        private final float threshold;
+        private final StreamingCorrelator correlator;
+
+        private boolean started = false;
+        private boolean finished = false;
+
+        /* the number of frames read before the first frame of the time span */
+        private int framesBefore = 0;
+
+        /* the first match */
+        private boolean matched = false;
+        private float matchCorr;
+        private int matchOffset;
+
+        Correlation(int tims, int tfms, float threshold)
+        {
+            this.tims = tims;
+            this.tfms = tfms;
+            this.threshold = threshold;
+
+            final int[] size = blockSize;
+            final double[][] spectrum = getSpectrum(size[0]);
+            this.correlator = new StreamingCorrelator(patternLength,
+                spectrum[0], spectrum[1], size[0], size[1], this);
+        }
+
+        /** Returns whether this correlation needs the loudness of the
+            next frame. This method must be called once before each frame
+            is read.
+            @param millis the playing time in milliseconds of the frames
+                read so far
+        */
+        boolean wantsNextFrame(int millis)
+        {
+            if (!finished && !started && millis >= tims)
             {
-                /* read loudness into second half of db */
-                readLoudness(reader, db, 0);
-
-                /*
-                  points is the number of points in the search buffer,
-                  2 * patternLength in the interior of the search region
-                 */
-                final int numberOfPoints = db.position();
-
-                /* copy all data in the search buffer into data */
-                db.flip();
-                db.get(data, 0, numberOfPoints);
-
-                /*
-                    fill up with zeros if necessary.
-                    Elements of data[] with index >= twoPatternLengths are always zero.
-                */
-                if (numberOfPoints < twoPatternLengths){
-                    java.util.Arrays.fill(data, numberOfPoints, twoPatternLengths, 0.0);
-                }
+                started = true;
+            }
 
-                /*
-                    compare with pattern if the start of the search buffer
-                    is at a position >= ti
-                */
-                if (isInitialBufferFill)
-                {
-                    isInitialBufferFill = false;
-                }
-                else
+            if (started && !finished)
+            {
+                /* no pattern may begin after the end of the time span */
+                if (millis > tfms)
                 {
-                    /* correlate data and pattern */
-                    final float[] searchResult = search(fft, data);
-
-                    /* update maxCorr and maxCorrFrames */
-                    if (searchResult[0] > maxCorr)
-                    {
-                        maxCorr = searchResult[0];
-                        maxCorrFrames = reader.getFrameCount() +
-                            ((int)searchResult[1] - numberOfPoints)/POINTS_PER_FRAME;
-                        //print(data, "data.out");
-                    }
+                    correlator.setEnd(correlator.getPointCount());
                 }
 
-                /* stop if the buffer could not be completely filled
-                because we have reached the end of the audio input */
-                if (numberOfPoints < twoPatternLengths)
+                if (matched || !correlator.needsMoreData())
                 {
-                    break;
+                    finish();
                 }
-
-                /* prepare for next read by moving the second half of
-                   the search buffer into the first half, setting its
-                   position to patternLength and its limit to twoPatternLengths */
-                db.position(patternLength);
-                db.compact();
             }
+
+            return started && !finished;
         }
-        finally
+
+        /** Records the first peak that reaches the threshold. */
+        @Override
+        public void peak(int offset, float correlation)
         {
-            /* close the input stream */
-            smp3.close();
+            if (!matched && correlation >= threshold)
+            {
+                matched = true;
+                matchCorr = correlation;
+                matchOffset = offset;
+            }
         }
 
-        return new SearchResult(
-            new MP3Position(-1, maxCorrFrames, -1),
-            new MP3Position(-1, maxCorrFrames + patternLength/POINTS_PER_FRAME, -1),
-            maxCorr);
-    }
+        /** Returns the playing time in milliseconds at which this
+            correlation begins. */
+        int getStartMillis()
+        {
+            return tims;
+        }
 
-    /** Searches the pattern in the specified data and returns the
-        maximum correlation and the integer delay at which the
-        sequence with the maximum correlation begins. */
-    private float[] search(FastFourierTransformer fft, double[] data){
-        /* compute norms */
-        final double[] norms = norms(data, 2 * patternLength);
-        assert(norms.length == patternLength + 1);
-
-        /*
-            compute the cross correlation of data and pattern.
-            The pattern (as returned by readPattern())
-            is already in reverse order. Cross-correlation
-            with the forward pattern is equivalent to convolution,
-            with the reverse pattern, which is what we do here.
-        */
-        Complex[] cbuff = fft.transform(data);
-        for (int k = 0; k < cbuff.length; k++)
+        /** Returns whether this correlation wants the fast loudness envelope
+            of the frames, see {@link MP3Search#isFastEnvelope}. */
+        boolean isFastEnvelope()
         {
-            cbuff[k] = cbuff[k].multiply(transformedPattern[k]);
+            return fastEnvelope;
         }
 
-        cbuff = fft.inversetransform(cbuff);
+        /** Returns the quality at which the frames are decoded for this
+            correlation, see {@link MP3Search#getQuality}. */
+        int getQuality()
+        {
+            return quality;
+        }
 
-        /* write data and cross correlation to disk (for debugging) */
-        // double[] dbuff = new double[cbuff.length];
-        // for(int k = 0; k < cbuff.length; k++){
-            // dbuff[k] = cbuff[k].getReal();
-        // }
-        // print(dbuff, "cc.out");
+        /** Returns whether this correlation has finished and will not
+            want any more frames. */
+        boolean isFinished()
+        {
+            return finished;
+        }
 
-        /*
-            Find the maximum of the cross correlation function
-            for delays between 0 and patternLength.
+        /** Appends the loudness of the last frame read to the correlation.
+            @param frameloudness the POINTS_PER_FRAME loudness values of the frame
+            @param samples the number of samples in the frame
+            @param frameCount the number of frames read so far
         */
-        double maxCorr = Double.NEGATIVE_INFINITY;
-        int maxCorrDelay = Integer.MIN_VALUE;
+        void put(double[] frameloudness, int samples, int frameCount)
+        {
+            checkSamplesPerFrame(samples);
+            if (correlator.getPointCount() == 0)
+            {
+                framesBefore = frameCount - 1;
+            }
+            correlator.feed(frameloudness);
+        }
 
-        for (int delay = 0; delay < patternLength; delay ++)
+        /** Correlates the remaining loudness values at the end of the
+            time span or the audio input. */
+        void finish()
         {
-            /* k = patternLength - 1 corresponds to delay zero */
-            final double ck =
-                cbuff[delay + patternLength - 1].getReal() / norms[delay];
-            if (ck > maxCorr){
-                maxCorr = ck;
-                maxCorrDelay = delay;
+            /* the offsets after a first match are of no interest */
+            if (!matched)
+            {
+                correlator.finish();
             }
+            finished = true;
         }
 
-        /* return the result */
-        return new float[]{ (float)maxCorr, maxCorrDelay };
+        /** Returns a SearchResult for the first match or, if there is none,
+            for the best match. Its Mp3Position fields carry only
+            framecount information. */
+        SearchResult getResult()
+        {
+            return matched
+                ? newResult(matchCorr, matchOffset, framesBefore)
+                : newResult(correlator.getMaxCorrelation(),
+                    correlator.getMaxCorrelationOffset(), framesBefore);
+        }
     }
 
-    /** Reads double loudness values from the specified reader into the
-        specified buffer. The buffer is completely filled if the reader
-        can provide enough data. If the buffer is <code>null</code>
-        a new buffer is allocated that can hold all loudness data for
+    /** Returns a SearchResult whose Mp3Position fields carry only
+        framecount information.
+        @param correlation the maximum correlation
+        @param offset the offset of the maximum in the loudness stream
+        @param framesBefore the number of frames read before the first
+            frame of the loudness stream
+    */
+    SearchResult newResult(float correlation, int offset, int framesBefore)
+    {
+        float maxCorr = 0;
+        int maxCorrFrames = 0;
+        if (correlation > maxCorr)
+        {
+            maxCorr = correlation;
+            maxCorrFrames = framesBefore + toFrames(offset);
+        }
+
+        return new SearchResult(
+            new MP3Position(-1, maxCorrFrames, -1),
+            new MP3Position(-1, maxCorrFrames + patternLength/POINTS_PER_FRAME, -1),
+            maxCorr);
+    }
+
+    /** Converts an offset in a loudness stream to a number of frames,
+        rounding up. */
+    private static int toFrames(int offset)
+    {
+        return (offset + POINTS_PER_FRAME - 1)/POINTS_PER_FRAME;
+    }
+
+    /** Reads double loudness values from the specified reader into a
+        newly allocated buffer that can hold all loudness data for
         the specified filesize.
         @param reader the mp3 audio data source
-        @param loudness the output buffer or <code>null</code> if a new
-            output buffer should be allocated and returned
         @param filesize the number of bytes of mp3 data for which an output
-            buffer should be allocated. Ignored unless <code>loudness</code>
-            is <code>null</code>.
-        @return the specified or newly allocated output buffer
+            buffer should be allocated.
+        @return the newly allocated output buffer
     */
-    private DoubleBuffer readLoudness(MP3Reader reader,
-            DoubleBuffer loudness, int filesize)
+    private DoubleBuffer readLoudness(MP3Reader reader, int filesize)
             throws MP3SearchException{
 
-        DoubleBuffer lloudness = loudness;
-        ShortBuffer sampleBuffer = reader.getOutput();
+        DoubleBuffer lloudness = null;
+        final LoudnessOBuffer sampleLoudness = reader.createLoudnessOutput();
+        final double[] frameloudness = new double[POINTS_PER_FRAME];
+        final float[] energy = fastEnvelope ? new float[2] : null;
 
-        while(reader.hasMoreFrames() &&
-             (loudness == null || loudness.hasRemaining()))
+        while(reader.hasMoreFrames())
         {
-            /* read a single frame. This fills sampleBuffer. */
-            reader.readFrame();
+            /* read a single frame. This fills sampleLoudness or energy. */
+            final int granules = reader.readFrame(!fastEnvelope, energy);
 
             /* check if we have got some samples */
-            if (sampleBuffer.position() > 0){
-                /* set samples per frame if not previously set */
-                this.samplesPerFrame.compareAndSet(0, sampleBuffer.position());
-
-                /* check samples per frame */
-                if (  sampleBuffer.position() != samplesPerFrame.get() ){
-                    throw new Error("All MP3 frames (both pattern and file to cut) must have the same number of samples.");
-                }
-
-                /*
-                    The loudness of the samples in the frame
-                    computed as the logarithm of the square
-                    amplitude is summed in
-                    the POINTS_PER_FRAME slots of the frameloudness array.
-                */
-                double[] frameloudness = new double[POINTS_PER_FRAME];
-
-                sampleBuffer.flip(); // prepare sampleBuffer for read access
-                final double BLOCKSIZE = sampleBuffer.limit() * 1.0f/POINTS_PER_FRAME;
-                java.util.Arrays.fill(frameloudness, 0.0);
-                for (int k = 0; sampleBuffer.hasRemaining(); k++){
-                    double d = sampleBuffer.get();
-                    d = d * d;
-                    if(d > 0){
-                        frameloudness[(int) (k/BLOCKSIZE)] += Math.log(d);
-                    }
+            if (sampleLoudness.getSampleCount() > 0 || granules > 0){
+                if (fastEnvelope)
+                {
+                    checkSamplesPerFrame(granules * SAMPLES_PER_GRANULE);
+                    energyLoudness(energy, granules, frameloudness);
                 }
-
-                /* convert to decadic log, normalize and
-                fill missing values with the equivalent of
-                total decadic loudness 1 */
-                final double normalizationFactor = POINTS_PER_FRAME * 1.0f/samplesPerFrame.get();
-                final double factor = normalizationFactor/LN10;
-                for (int k = frameloudness.length - 1; k >= 0; k--)
+                else
                 {
-                    if (frameloudness[k] == 0)
-                    {
-                        frameloudness[k] = normalizationFactor;
-                    }
-                    else
-                    {
-                        frameloudness[k] *= factor;
-                    }
+                    checkSamplesPerFrame(sampleLoudness.getSampleCount());
+                    sampleLoudness.frameLoudness(frameloudness);
                 }
 
                 /* create the output buffer if it is null */
@@ -321,15 +576,74 @@ public class MP3Search
 
                 /* store loudness in output buffer */
                 lloudness.put(frameloudness);
-
-                // prepare for next read
-                sampleBuffer.clear();
             }
         }
 
         return lloudness;
     }
 
+    /** Sets the number of samples per frame if it has not been
+        previously set and checks that it equals the specified number.
+        @param samples the number of samples in the current frame
+    */
+    void checkSamplesPerFrame(int samples)
+    {
+        /* set samples per frame if not previously set */
+        this.samplesPerFrame.compareAndSet(0, samples);
+
+        /* check samples per frame */
+        if (  samples != samplesPerFrame.get() ){
+            throw new Error("All MP3 frames (both pattern and file to cut) must have the same number of samples.");
+        }
+    }
+
+    /** Converts the sums of the natural logarithms of the square
+        amplitudes of a frame to its loudness.
+        @param frameloudness the sums for the POINTS_PER_FRAME blocks of
+            the frame, receives the loudness
+        @param samples the number of samples of the frame
+    */
+    static void normalizeLoudness(double[] frameloudness, int samples)
+    {
+        /* convert to decadic log, normalize and
+        fill missing values with the equivalent of
+        total decadic loudness 1 */
+        final double normalizationFactor = POINTS_PER_FRAME * 1.0f/samples;
+        final double factor = normalizationFactor/LN10;
+        for (int k = frameloudness.length - 1; k >= 0; k--)
+        {
+            if (frameloudness[k] == 0)
+            {
+                frameloudness[k] = normalizationFactor;
+            }
+            else
+            {
+                frameloudness[k] *= factor;
+            }
+        }
+    }
+
+    /** Computes the fast loudness envelope of a single frame from the
+        estimated energy of its granules, see
+        {@link MP3Reader#readFrame(boolean, float[])}.
+        The loudness of a granule is the decadic logarithm of one plus an
+        estimate of its mean square amplitude in units of 16 bit samples. If a frame has fewer
+        than POINTS_PER_FRAME granules, each granule fills several slots of
+        the frameloudness array.
+        @param energy the energy of each granule of the frame
+        @param granules the number of granules of the frame
+        @param frameloudness the output array of length POINTS_PER_FRAME
+    */
+    static void energyLoudness(float[] energy, int granules, double[] frameloudness)
+    {
+        final double factor = ENERGY_SCALE/SAMPLES_PER_GRANULE;
+        for (int k = 0; k < POINTS_PER_FRAME; k++)
+        {
+            final float e = energy[k * granules / POINTS_PER_FRAME];
+            frameloudness[k] = Math.log10(1 + e * factor);
+        }
+    }
+
     public static void main(String[] argv) throws Exception{
         MP3Search me = new MP3Search(new File(argv[0]));
         int starttime = (argv.length > 2)
@@ -354,15 +668,53 @@ public class MP3Search
 
     /* I/O */
     /** Writes the pattern of this MP3Search to the specified file.
-    * The file can be passed to the constructor to recreate the MP3Search,
-    * note that the format of the file may change between different
-    * versions of this class.
+    * The file can be passed to the constructor to recreate the MP3Search.
+    * Besides the pattern, it holds the spectra of the pattern for the
+    * current {@link #getBlockSize block size} and for all other block
+    * sizes that have been used, so that they need not be computed when
+    * the file is read. The file records whether the pattern is a
+    * {@link #isFastEnvelope fast envelope}, the {@link #getQuality quality}
+    * and the number of samples per frame of the pattern, and it has a
+    * version number and a checksum.
     * @param file The output file.
     * @exception IOException thrown when the specified file cannot be written
     */
     public void writePattern(File file) throws IOException{
-        ByteBuffer b = ByteBuffer.allocate(Double.SIZE/8 * this.patternLength);
-        b.asDoubleBuffer().put(this.zeroPaddedPattern, 0, this.patternLength);
+        getSpectrum(getBlockSize());
+        final Integer[] sizes = spectra.keySet().toArray(new Integer[0]);
+        Arrays.sort(sizes);
+        int length = PATTERN_HEADER_SIZE + sizes.length * Integer.SIZE/8
+            + patternLength * Double.SIZE/8;
+        for (int size : sizes)
+        {
+            length += (size + 2) * Double.SIZE/8;
+        }
+
+        final ByteBuffer b = ByteBuffer.allocate(length);
+        b.position(PATTERN_HEADER_SIZE);
+        for (int size : sizes)
+        {
+            b.putInt(size);
+        }
+        final DoubleBuffer d = b.asDoubleBuffer();
+        d.put(this.pattern, 0, this.patternLength);
+        for (int size : sizes)
+        {
+            final double[][] spectrum = spectra.get(size);
+            d.put(spectrum[0]);
+            d.put(spectrum[1]);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(b.array(), PATTERN_HEADER_SIZE, length - PATTERN_HEADER_SIZE);
+        b.position(0);
+        b.putLong(PATTERN_MAGIC);
+        b.putInt(PATTERN_VERSION);
+        b.putInt(fastEnvelope ? FLAG_FAST_ENVELOPE : 0);
+        b.putInt(quality);
+        b.putInt(samplesPerFrame.get());
+        b.putInt(patternLength);
+        b.putInt(sizes.length);
+        b.putLong(crc.getValue());
         b.position(0);
         FileChannel out = (new FileOutputStream(file)).getChannel();
         try
@@ -404,8 +756,8 @@ public class MP3Search
             DoubleBuffer loudness = null;
             try
             {
-                MP3Reader reader = new MP3Reader(spattern);
-                loudness = readLoudness(reader, null, (int)filesize);
+                MP3Reader reader = new MP3Reader(spattern, SYNTHESIS_QUALITY);
+                loudness = readLoudness(reader, (int)filesize);
             }
             finally
             {
@@ -440,25 +792,110 @@ public class MP3Search
         return pattern;
     }
 
-    private static double[] readSerializedPattern(File f) throws IOException{
+    /** Reads a pattern file written by {@link #writePattern} or by an
+        earlier version of it, and sets the quality of this search. The file
+        is mapped into memory. The spectra that it holds are kept in
+        storedSpectra and are only copied when they are used. */
+    private double[] readSerializedPattern(File f) throws IOException,
+            MP3SearchException{
         final FileChannel in = (new FileInputStream(f)).getChannel();
-        if (f.length() > Integer.MAX_VALUE){
-            throw new IOException("File " + f + " is too big.");
-        }
-        final ByteBuffer b = ByteBuffer.allocate((int) f.length());
+        final ByteBuffer b;
         try{
-            while(b.hasRemaining()){
-                in.read(b);
+            if (in.size() > Integer.MAX_VALUE){
+                throw new IOException("File " + f + " is too big.");
             }
+            b = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
         } finally {
+            /* the mapping remains valid */
             in.close();
         }
-        b.flip();
-        double[] result = new double[(int) f.length()/(Double.SIZE/8)];
-        b.asDoubleBuffer().get(result);
+
+        if (b.remaining() < V2_HEADER_SIZE || b.getLong(0) != PATTERN_MAGIC){
+            /* version 1 */
+            double[] result = new double[b.remaining()/(Double.SIZE/8)];
+            b.asDoubleBuffer().get(result);
+            quality = Decoder.Params.HIGH_QUALITY;
+            return result;
+        }
+
+        final int version = b.getInt(8);
+        final int header;
+        final int samples;
+        final int n;
+        final int m;
+        if (version == 2){
+            header = V2_HEADER_SIZE;
+            quality = SYNTHESIS_QUALITY;
+            samples = 0;
+            n = b.getInt(16);
+            m = b.getInt(20);
+        } else if (version == PATTERN_VERSION && b.remaining() >= PATTERN_HEADER_SIZE){
+            header = PATTERN_HEADER_SIZE;
+            quality = b.getInt(16);
+            samples = b.getInt(20);
+            n = b.getInt(24);
+            m = b.getInt(28);
+        } else {
+            throw new MP3SearchException("Pattern " + f + " has the unsupported version "
+                + version + ".");
+        }
+        final int flags = b.getInt(12);
+        if (((flags & FLAG_FAST_ENVELOPE) != 0) != fastEnvelope){
+            throw new MP3SearchException("Pattern " + f + " is " + (fastEnvelope ? "not " : "")
+                + "a fast envelope.");
+        }
+        if (quality != Decoder.Params.HIGH_QUALITY && quality != Decoder.Params.MEDIUM_QUALITY
+                && quality != Decoder.Params.LOW_QUALITY){
+            throw new MP3SearchException("Pattern " + f + " is corrupt.");
+        }
+        if (samples < 0 || n < 1 || m < 0 || m > (b.remaining() - header)/(Integer.SIZE/8)){
+            throw new MP3SearchException("Pattern " + f + " is corrupt.");
+        }
+        final int[] sizes = new int[m];
+        long length = header + m * Integer.SIZE/8 + n * (long) Double.SIZE/8;
+        for (int i = 0; i < m; i++){
+            sizes[i] = b.getInt(header + i * Integer.SIZE/8);
+            if (sizes[i] < n || Integer.bitCount(sizes[i]) != 1){
+                throw new MP3SearchException("Pattern " + f + " is corrupt.");
+            }
+            length += (sizes[i] + 2L) * Double.SIZE/8;
+        }
+        if (length != b.remaining() || checksum(b, header) != b.getLong(header - 8)){
+            throw new MP3SearchException("Pattern " + f + " is corrupt.");
+        }
+
+        b.position(header + m * Integer.SIZE/8);
+        final DoubleBuffer d = b.asDoubleBuffer();
+        final double[] result = new double[n];
+        d.get(result);
+        for (int i = 0; i < m; i++){
+            final int len = sizes[i] + 2;
+            final DoubleBuffer spectrum = d.slice();
+            spectrum.limit(len);
+            storedSpectra.put(sizes[i], spectrum);
+            d.position(d.position() + len);
+        }
+        if (samples > 0){
+            checkSamplesPerFrame(samples);
+        }
         return result;
     }
 
+    /** Returns the CRC32 of the bytes after the header of a pattern file.
+        @param header the size of the header */
+    private static long checksum(ByteBuffer b, int header){
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[8192];
+        final ByteBuffer in = b.duplicate();
+        in.position(header);
+        while (in.hasRemaining()){
+            final int len = Math.min(chunk.length, in.remaining());
+            in.get(chunk, 0, len);
+            crc.update(chunk, 0, len);
+        }
+        return crc.getValue();
+    }
+
     /** Writes the specified list of doubles to the specified file.
         Used for debugging.
     */
@@ -540,26 +977,4 @@ public class MP3Search
         result = Math.sqrt(result);
         return result;
     }
-
-    /** Computes the l2norms of all contiguous blocks of length
-        this.patternLength in the first n entries of d.
-        @return an array of length <code>n - this.patternLength + 1</code> with the norms.
-    **/
-    private double[] norms(final double[] d, int n)
-    {
-        double[] result = new double[n - this.patternLength + 1];
-        result[0] = l2norm(d, this.patternLength);
-        double nsqr = result[0] * result[0];
-        for (int k = 0, j = this.patternLength;
-            j < n;
-            j++)
-        {
-            nsqr = nsqr - d[k] * d[k] + d[j] * d[j];
-            result[++k] = Math.sqrt(nsqr);
-        }
-
-        return result;
-    }
 }
-
-
@@ -0,0 +1,393 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/** An index of the markers in the marker directory and of the default
+    markers in jar files.
+    <p>The marker directory and the jars are scanned once when the catalog
+    is created. Afterwards, the index of the marker directory is updated
+    from the events of a {@link WatchService} before each lookup, so a
+    lookup does not touch the file system unless markers have changed.</p>
+    <p>A default marker is extracted to the marker directory when it is
+    first found. Extractions run on a shared pool, and concurrent lookups
+    of the same marker wait for the same extraction.</p>
+    <p>The watch service is released by {@link #close}. A closed catalog
+    scans the marker directory before each lookup.</p>
+*/
+final class MarkerCatalog implements Closeable
+{
+    private static final String PATTERN = ".pattern";
+    private static final String MP3 = ".mp3";
+    private static final String JAR_PREFIX = "markers/";
+
+    private final File markerDir;
+    private final ExecutorService extractor;
+
+    /** the files in the marker directory by name */
+    private final ConcurrentMap<String, File> files = new ConcurrentHashMap<String, File>();
+
+    /** the jars that hold default markers by key, later jars take precedence */
+    private final Map<String, File> defaults = new HashMap<String, File>();
+
+    /** the extractions in progress by key */
+    private final ConcurrentMap<String, Future<File>> extractions =
+        new ConcurrentHashMap<String, Future<File>>();
+
+    /** watches the marker directory, <code>null</code> if that is not supported */
+    private final WatchService watcher;
+
+    /** whether the watch service has been closed, guarded by this */
+    private boolean closed = false;
+
+    /** Creates a new catalog.
+        @param markerDir the marker directory
+        @param jars the jar files or directories with default markers in
+            their "markers" directory, in increasing order of precedence;
+            entries that do not exist are ignored
+        @param extractor the pool on which default markers are extracted
+    */
+    MarkerCatalog(File markerDir, File[] jars, ExecutorService extractor)
+    {
+        this.markerDir = markerDir;
+        this.extractor = extractor;
+        WatchService w = null;
+        try
+        {
+            w = FileSystems.getDefault().newWatchService();
+            markerDir.toPath().register(w,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Cannot watch " + markerDir + ": " + ex);
+            w = null;
+        }
+        this.watcher = w;
+        scan();
+        for (File jar : jars)
+        {
+            try
+            {
+                scanDefaults(jar);
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Cannot read " + jar + ": " + ex);
+            }
+        }
+    }
+
+    /** Finds the marker file for the specified key.
+        A ".pattern" marker in the marker directory takes precedence
+        over an ".mp3" marker unless the ".mp3" marker is newer, and
+        both take precedence over default markers.
+        @param key the name of the search, usually a cropped mp3 file name
+        @return the ".pattern" or ".mp3" marker file or <code>null</code>
+            if there is no marker for this key
+    */
+    File find(final String key)
+    {
+        refresh();
+        final File pattern = existing(key + PATTERN);
+        final File mp3 = existing(key + MP3);
+        if (mp3 != null && (pattern == null || mp3.lastModified() > pattern.lastModified()))
+        {
+            return mp3;
+        }
+        if (pattern != null)
+        {
+            return pattern;
+        }
+
+        final File jar = defaults.get(key);
+        if (jar == null)
+        {
+            return null;
+        }
+        Future<File> extraction = extractions.get(key);
+        if (extraction == null)
+        {
+            final FutureTask<File> created = new FutureTask<File>(new Callable<File>(){
+                @Override
+                public File call() throws IOException{
+                    return extract(jar, key);
+                }
+            });
+            extraction = extractions.putIfAbsent(key, created);
+            if (extraction == null)
+            {
+                extraction = created;
+                extractor.execute(created);
+            }
+        }
+        try
+        {
+            final File extracted = extraction.get();
+            files.put(extracted.getName(), extracted);
+            return extracted;
+        }
+        catch (ExecutionException ex)
+        {
+            System.err.println(ex.getCause());
+            return null;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        finally
+        {
+            extractions.remove(key, extraction);
+        }
+    }
+
+    /** Closes the watch service of this catalog. */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (watcher != null && !closed)
+        {
+            closed = true;
+            watcher.close();
+        }
+    }
+
+    /** Returns the indexed file with the specified name if it still
+        exists. The event of its deletion may not have arrived yet. */
+    private File existing(String name)
+    {
+        final File f = files.get(name);
+        if (f != null && !f.isFile())
+        {
+            files.remove(name, f);
+            return null;
+        }
+        return f;
+    }
+
+    /** Applies the pending events of the marker directory to the index. */
+    private synchronized void refresh()
+    {
+        if (watcher == null || closed)
+        {
+            files.clear();
+            scan();
+            return;
+        }
+        for (WatchKey key = watcher.poll(); key != null; key = watcher.poll())
+        {
+            for (WatchEvent<?> event : key.pollEvents())
+            {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                {
+                    files.clear();
+                    scan();
+                }
+                else
+                {
+                    final File f = new File(markerDir, ((Path) event.context()).toString());
+                    if (f.isFile() && isMarker(f.getName()))
+                    {
+                        files.put(f.getName(), f);
+                    }
+                    else
+                    {
+                        files.remove(f.getName());
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /** Adds all markers in the marker directory to the index. */
+    private void scan()
+    {
+        final File[] list = markerDir.listFiles();
+        if (list != null)
+        {
+            for (File f : list)
+            {
+                if (f.isFile() && isMarker(f.getName()))
+                {
+                    files.put(f.getName(), f);
+                }
+            }
+        }
+    }
+
+    private static boolean isMarker(String name)
+    {
+        return name.endsWith(PATTERN) || name.endsWith(MP3);
+    }
+
+    /** Adds the ".pattern" markers in the "markers" directory of a jar
+        file or of a class directory to the default markers. */
+    private void scanDefaults(File jar) throws IOException
+    {
+        if (jar.isDirectory())
+        {
+            final File[] list = new File(jar, JAR_PREFIX).listFiles();
+            if (list != null)
+            {
+                for (File f : list)
+                {
+                    if (f.getName().endsWith(PATTERN))
+                    {
+                        defaults.put(keyOf(f.getName()), jar);
+                    }
+                }
+            }
+        }
+        else if (jar.isFile())
+        {
+            final JarFile jf = new JarFile(jar);
+            try
+            {
+                for (Enumeration<JarEntry> e = jf.entries(); e.hasMoreElements(); )
+                {
+                    final String name = e.nextElement().getName();
+                    if (name.startsWith(JAR_PREFIX) && name.endsWith(PATTERN)
+                        && name.indexOf('/', JAR_PREFIX.length()) < 0)
+                    {
+                        defaults.put(keyOf(name.substring(JAR_PREFIX.length())), jar);
+                    }
+                }
+            }
+            finally
+            {
+                jf.close();
+            }
+        }
+    }
+
+    private static String keyOf(String fileName)
+    {
+        return fileName.substring(0, fileName.length() - PATTERN.length());
+    }
+
+    /** Copies a default marker to the marker directory.
+        @return the extracted marker file
+    */
+    private File extract(File jar, String key) throws IOException
+    {
+        final String name = key + PATTERN;
+        final File target = new File(markerDir, name);
+        final File tmp = new File(markerDir, name + ".tmp");
+        boolean ok = false;
+        try
+        {
+            long time;
+            if (jar.isDirectory())
+            {
+                final File f = new File(new File(jar, JAR_PREFIX), name);
+                copy(new FileInputStream(f), tmp);
+                time = f.lastModified();
+            }
+            else
+            {
+                final JarFile jf = new JarFile(jar);
+                try
+                {
+                    final JarEntry entry = jf.getJarEntry(JAR_PREFIX + name);
+                    if (entry == null)
+                    {
+                        throw new IOException("No " + JAR_PREFIX + name + " in " + jar);
+                    }
+                    copy(jf.getInputStream(entry), tmp);
+                    time = entry.getTime();
+                }
+                finally
+                {
+                    jf.close();
+                }
+            }
+            System.err.println("Copying " + name + " from " + jar + " to " + markerDir);
+            target.delete();
+            if (!tmp.renameTo(target))
+            {
+                throw new IOException("Cannot create " + target);
+            }
+            if (time > 0)
+            {
+                target.setLastModified(time);
+            }
+            ok = true;
+            return target;
+        }
+        finally
+        {
+            if (!ok)
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void copy(InputStream in, File target) throws IOException
+    {
+        try
+        {
+            final OutputStream out = new FileOutputStream(target);
+            try
+            {
+                final byte[] buff = new byte[4096];
+                for (int bread = in.read(buff); bread != -1; bread = in.read(buff))
+                {
+                    out.write(buff, 0, bread);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Searches a single mp3 file for any number of audio patterns at once.
+    The file is read and decoded in a single pass. The loudness of each
+    decoded frame is passed to the sliding correlations of all patterns
+    whose search time span contains the frame. Frames that lie outside
+    all search time spans are skipped without decoding, and frames that
+    precede all remaining time spans are skipped without even reading
+    their payload. Frames that are only wanted by patterns with a
+    {@link MP3Search#isFastEnvelope fast envelope} are decoded only as
+    far as needed to estimate their energy.
+    If the {@link LoudnessEnvelope#isCacheEnabled loudness cache} is enabled
+    and no pattern uses the fast envelope, the loudness of the frames is
+    taken from the cached {@link LoudnessEnvelope} of the file instead.
+    Patterns that have been decoded at another
+    {@link MP3Search#getQuality quality} than the others are searched in
+    another pass, which decodes the file at their quality.
+    A pattern that is searched for its first match takes no more frames
+    once the match is confirmed.
+    <p>A MultiPatternSearch can be reused for any number of mp3 files.
+    The search methods are thread-safe as long as no patterns are added
+    concurrently.</p>
+*/
+public class MultiPatternSearch
+{
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /** Adds a pattern to this search.
+        @param search the compiled pattern
+        @param tims the playing time in milliseconds at which to begin the search
+        @param tfms the playing time in milliseconds at which to stop the search
+        @return the index of the result for this pattern in the arrays
+            returned by the search methods
+    */
+    public int add(MP3Search search, int tims, int tfms)
+    {
+        return add(search, tims, tfms, Float.POSITIVE_INFINITY);
+    }
+
+    /** Adds a pattern to this search whose search ends at its first match,
+        see {@link MP3Search#searchFirstMatch}.
+        @param search the compiled pattern
+        @param tims the playing time in milliseconds at which to begin the search
+        @param tfms the playing time in milliseconds at which to stop the search
+        @param threshold the least correlation of a first match or
+            <code>Float.POSITIVE_INFINITY</code> to search for the best match only
+        @return the index of the result for this pattern in the arrays
+            returned by the search methods
+    */
+    public int add(MP3Search search, int tims, int tfms, float threshold)
+    {
+        entries.add(new Entry(search, tims, tfms, threshold));
+        return entries.size() - 1;
+    }
+
+    /** Returns the number of patterns in this search. */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /** Searches the specified file for all patterns of this search.
+        @param mp3 the file to search
+        @return a SearchResult for each pattern, in the order in which the
+            patterns have been added
+    */
+    public SearchResult[] search(File mp3) throws IOException, MP3SearchException
+    {
+        return SearchResult.fillInMissingPositionFields(searchSteps(mp3), mp3);
+    }
+
+    /** Searches the specified file for all patterns of this search.
+        @param mp3 the file to search
+        @return a SearchResult for each pattern whose Mp3Position fields
+            carry only framecount information
+    */
+    SearchResult[] searchSteps(File mp3) throws IOException, MP3SearchException
+    {
+        final int n = entries.size();
+        final MP3Search.Correlation[] correlations = new MP3Search.Correlation[n];
+        boolean fastEnvelope = false;
+        for (int i = 0; i < n; i++)
+        {
+            final Entry e = entries.get(i);
+            correlations[i] = e.search.newCorrelation(e.tims, e.tfms, e.threshold);
+            fastEnvelope |= e.search.isFastEnvelope();
+        }
+
+        /* one pass for each quality, fast envelopes go with the first pass */
+        final List<Integer> qualities = new ArrayList<Integer>();
+        for (MP3Search.Correlation c : correlations)
+        {
+            if (!c.isFastEnvelope() && !qualities.contains(c.getQuality()))
+            {
+                qualities.add(c.getQuality());
+            }
+        }
+        if (qualities.isEmpty())
+        {
+            qualities.add(MP3Search.SYNTHESIS_QUALITY);
+        }
+
+        for (int k = 0; k < qualities.size(); k++)
+        {
+            final int quality = qualities.get(k);
+            final List<MP3Search.Correlation> pass = new ArrayList<MP3Search.Correlation>();
+            for (MP3Search.Correlation c : correlations)
+            {
+                if (c.isFastEnvelope() ? k == 0 : c.getQuality() == quality)
+                {
+                    pass.add(c);
+                }
+            }
+
+            /* the cache holds only the loudness of samples decoded at SYNTHESIS_QUALITY */
+            LoudnessEnvelope envelope = null;
+            if (LoudnessEnvelope.isCacheEnabled() && !fastEnvelope
+                    && quality == MP3Search.SYNTHESIS_QUALITY)
+            {
+                envelope = LoudnessEnvelope.get(mp3);
+            }
+
+            final MP3Search.Correlation[] passCorrelations =
+                pass.toArray(new MP3Search.Correlation[pass.size()]);
+            if (envelope == null)
+            {
+                correlate(mp3, passCorrelations, quality);
+            }
+            else
+            {
+                correlate(envelope, passCorrelations);
+            }
+        }
+
+        final SearchResult[] result = new SearchResult[n];
+        for (int i = 0; i < n; i++)
+        {
+            result[i] = correlations[i].getResult();
+        }
+
+        return result;
+    }
+
+    /** Decodes the specified file at the specified quality and passes the
+        loudness of its frames or their fast loudness envelope to the
+        specified correlations. */
+    private static void correlate(File mp3, MP3Search.Correlation[] correlations,
+            int quality)
+    throws IOException, MP3SearchException
+    {
+        final int n = correlations.length;
+        final boolean[] wants = new boolean[n];
+        final double[] frameloudness = new double[MP3Search.POINTS_PER_FRAME];
+        final float[] energy = new float[2];
+        final FileInputStream smp3 = new FileInputStream(mp3);
+
+        try
+        {
+            /* Open an MP3Reader on the input stream */
+            final MP3Reader reader = new MP3Reader(smp3, quality);
+            final LoudnessOBuffer sampleLoudness = reader.createLoudnessOutput();
+
+            while (reader.hasMoreFrames())
+            {
+                /* find out who needs the next frame */
+                boolean decode = false;
+                boolean estimate = false;
+                boolean finished = true;
+                for (int i = 0; i < n; i++)
+                {
+                    wants[i] = correlations[i].wantsNextFrame(reader.getMillis());
+                    if (wants[i])
+                    {
+                        if (correlations[i].isFastEnvelope())
+                        {
+                            estimate = true;
+                        }
+                        else
+                        {
+                            decode = true;
+                        }
+                    }
+                    finished &= correlations[i].isFinished();
+                }
+
+                if (finished)
+                {
+                    break;
+                }
+
+                /* skip frames that precede all time spans without reading them */
+                if (!decode && !estimate &&
+                    reader.skipFrames(nextStartMillis(correlations)) > 0)
+                {
+                    continue;
+                }
+
+                /*
+                    read a single frame. If decode is true this fills sampleLoudness,
+                    if estimate is true this fills energy.
+                */
+                final int granules = reader.readFrame(decode, estimate ? energy : null);
+
+                /* check if we have got some samples */
+                if (decode && sampleLoudness.getSampleCount() > 0)
+                {
+                    final int samples = sampleLoudness.getSampleCount();
+                    sampleLoudness.frameLoudness(frameloudness);
+                    put(correlations, wants, false, frameloudness, samples,
+                        reader.getFrameCount());
+                }
+
+                /* check if we have got some granules */
+                if (estimate && granules > 0)
+                {
+                    MP3Search.energyLoudness(energy, granules, frameloudness);
+                    put(correlations, wants, true, frameloudness,
+                        granules * MP3Search.SAMPLES_PER_GRANULE, reader.getFrameCount());
+                }
+            }
+
+            /* correlate partially filled search buffers */
+            for (int i = 0; i < n; i++)
+            {
+                correlations[i].finish();
+            }
+        }
+        finally
+        {
+            /* close the input stream */
+            smp3.close();
+        }
+    }
+
+    /** Returns the earliest playing time at which one of the specified
+        correlations that have not finished begins. */
+    private static int nextStartMillis(MP3Search.Correlation[] correlations)
+    {
+        int result = Integer.MAX_VALUE;
+        for (MP3Search.Correlation c : correlations)
+        {
+            if (!c.isFinished())
+            {
+                result = Math.min(result, c.getStartMillis());
+            }
+        }
+        return result;
+    }
+
+    /** Passes the loudness of a frame to the correlations that want it
+        and use the specified kind of loudness envelope. */
+    private static void put(MP3Search.Correlation[] correlations, boolean[] wants,
+            boolean fastEnvelope, double[] frameloudness, int samples, int frameCount)
+    {
+        for (int i = 0; i < correlations.length; i++)
+        {
+            if (wants[i] && correlations[i].isFastEnvelope() == fastEnvelope)
+            {
+                correlations[i].put(frameloudness, samples, frameCount);
+            }
+        }
+    }
+
+    /** Passes the loudness of the frames of the specified envelope
+        to the specified correlations. */
+    private static void correlate(LoudnessEnvelope envelope,
+            MP3Search.Correlation[] correlations)
+    {
+        final int n = correlations.length;
+        final boolean[] wants = new boolean[n];
+        final double[] frameloudness = new double[MP3Search.POINTS_PER_FRAME];
+        final int frames = envelope.getFrameCount();
+        final int samples = envelope.getSamplesPerFrame();
+        final float msPerFrame = envelope.getMillisPerFrame();
+
+        /* replay the frame count and playing time bookkeeping of MP3Reader */
+        double milliseconds = 0;
+        int frameCount = 0;
+
+        /*
+            The correlations are asked once more after the last frame,
+            just like at the end of an mp3 file.
+        */
+        for (int frame = 0; frame <= frames; frame++)
+        {
+            /* find out who needs the next frame */
+            boolean wanted = false;
+            boolean finished = true;
+            for (int i = 0; i < n; i++)
+            {
+                wants[i] = correlations[i].wantsNextFrame((int) milliseconds);
+                wanted |= wants[i];
+                finished &= correlations[i].isFinished();
+            }
+
+            if (finished || frame == frames)
+            {
+                break;
+            }
+
+            frameCount++;
+            milliseconds += msPerFrame;
+
+            if (wanted)
+            {
+                envelope.get(frame, frameloudness);
+                for (int i = 0; i < n; i++)
+                {
+                    if (wants[i])
+                    {
+                        correlations[i].put(frameloudness, samples, frameCount);
+                    }
+                }
+            }
+        }
+
+        /* correlate partially filled search buffers */
+        for (int i = 0; i < n; i++)
+        {
+            correlations[i].finish();
+        }
+    }
+
+    /** A pattern and the time span in which to search for it. */
+    private static class Entry
+    {
+        final MP3Search search;
+        final int tims;
+        final int tfms;
+        final float threshold;
+
+        Entry(MP3Search search, int tims, int tfms, float threshold)
+        {
+            this.search = search;
+            this.tims = tims;
+            this.tfms = tfms;
+            this.threshold = threshold;
+        }
+    }
+}
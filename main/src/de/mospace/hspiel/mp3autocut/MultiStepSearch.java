@@ -19,18 +19,27 @@ package de.mospace.hspiel.mp3autocut;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 public class MultiStepSearch{
     private final MP3Search searcher;
     private SearchStep[] strategy;
+    private boolean firstMatch = Boolean.getBoolean("firstMatch");
 
     public MultiStepSearch(File mp3pattern, SearchStep[] strategy)
+    throws IOException, MP3SearchException{
+        this(mp3pattern, strategy, false);
+    }
+
+    /** @param fastEnvelope whether to search the fast loudness envelope,
+        see {@link MP3Search#isFastEnvelope} */
+    public MultiStepSearch(File mp3pattern, SearchStep[] strategy, boolean fastEnvelope)
     throws IOException, MP3SearchException{
         if(strategy.length < 1){
             throw new IllegalArgumentException("Empty strategy is not allowed.");
         }
         this.strategy = strategy.clone();
-        searcher = new MP3Search(mp3pattern);
+        searcher = new MP3Search(mp3pattern, fastEnvelope);
     }
 
     public void writePattern(File f) throws IOException{
@@ -38,31 +47,164 @@ public class MultiStepSearch{
     }
 
     public SearchResult search(File mp3) throws MP3SearchException, IOException{
-        SearchResult result = null;
-        SearchResult stepResult = null;
-        final int totalTime = MP3AutoCut.toMP3File(mp3).getPlayingTime() * 1000;
+        return search(mp3, new MultiStepSearch[]{ this })[0];
+    }
+
+    /** Performs several multi-step searches on the same mp3 file.
+        The searches proceed in rounds. In each round the next step of
+        every search that has not yet succeeded is performed, and all
+        these steps share a single pass over the mp3 file. A step whose
+        time span equals that of an earlier step of the same search
+        reuses the earlier result instead of searching again.
+        @param mp3 the file to search
+        @param searches the searches to perform, may contain <code>null</code> entries
+        @return for each search the result of the first successful step or
+            <code>null</code> if the search is <code>null</code> or no step
+            succeeded
+    */
+    public static SearchResult[] search(File mp3, MultiStepSearch[] searches)
+    throws MP3SearchException, IOException{
+        return search(mp3, searches, null);
+    }
 
-        for (SearchStep step : strategy){
-            final int ti = step.getStartTimeMillis();
-            final int tf = step.getEndTimeMillis();
-            stepResult = searcher.searchStep(mp3,
-                (ti >= 0)? ti : Math.max(totalTime + ti, 0) ,
-                (tf >= 0)? tf : Math.max(totalTime + tf, 0));
-            if(stepResult != null && stepResult.getCorrelation() >= step.getSuccessCorrelation()){
-                result = stepResult;
-                break;
+    /** Performs several multi-step searches on the same mp3 file like
+        {@link #search(File, MultiStepSearch[])}. If a pool is specified,
+        the steps of each round do not share a pass over the file. Instead,
+        each step that does not end at its {@link #setFirstMatch first match}
+        is split into segments that are searched in parallel on the pool,
+        see {@link MP3Search#search(File, int, int, ForkJoinPool)}.
+        This keeps idle processors busy when there are fewer files than
+        processors.
+        @param mp3 the file to search
+        @param searches the searches to perform, may contain <code>null</code> entries
+        @param pool the pool on which to search the steps, may be <code>null</code>
+        @return for each search the result of the first successful step or
+            <code>null</code> if the search is <code>null</code> or no step
+            succeeded
+    */
+    public static SearchResult[] search(File mp3, MultiStepSearch[] searches,
+            ForkJoinPool pool)
+    throws MP3SearchException, IOException{
+        final int n = searches.length;
+        final SearchResult[] result = new SearchResult[n];
+        final SearchStep[][] strategies = new SearchStep[n][];
+        final int[][][] spans = new int[n][][];
+        final SearchResult[][] stepResults = new SearchResult[n][];
+
+        int rounds = 0;
+        for (int i = 0; i < n; i++){
+            if (searches[i] != null){
+                strategies[i] = searches[i].strategy;
+                spans[i] = new int[strategies[i].length][];
+                stepResults[i] = new SearchResult[strategies[i].length];
+                rounds = Math.max(rounds, strategies[i].length);
             }
         }
 
-        if (result != null)
-        {
-            MP3Position[] positions = MP3Position.getPositionsForFrameCounts(
-                new int[]{ result.getStart().getFrameCount(), result.getEnd().getFrameCount() },
-                mp3);
-            result = new SearchResult(positions[0], positions[1], result.getCorrelation());
+        if (rounds == 0){
+            return result;
+        }
+
+        final int totalTime = MP3AutoCut.toMP3File(mp3).getPlayingTime() * 1000;
+        final boolean[] succeeded = new boolean[n];
+
+        for (int k = 0; k < rounds; k++){
+            final MultiPatternSearch pass = new MultiPatternSearch();
+            final int[] ids = new int[n];
+            final boolean[] parallel = new boolean[n];
+
+            /* collect the steps of this round */
+            for (int i = 0; i < n; i++){
+                ids[i] = -1;
+                if (strategies[i] == null || succeeded[i] || k >= strategies[i].length){
+                    continue;
+                }
+
+                final SearchStep step = strategies[i][k];
+                final int ti = step.getStartTimeMillis();
+                final int tf = step.getEndTimeMillis();
+                spans[i][k] = new int[]{
+                    (ti >= 0)? ti : Math.max(totalTime + ti, 0) ,
+                    (tf >= 0)? tf : Math.max(totalTime + tf, 0)
+                };
+
+                /* reuse the result of an earlier step with the same time span */
+                for (int j = 0; j < k; j++){
+                    if (java.util.Arrays.equals(spans[i][j], spans[i][k])){
+                        stepResults[i][k] = stepResults[i][j];
+                        break;
+                    }
+                }
+
+                /* a first match is found in a single pass, see MP3Search.searchFirstMatch */
+                if (stepResults[i][k] == null){
+                    if (pool == null || searches[i].firstMatch){
+                        ids[i] = pass.add(searches[i].searcher, spans[i][k][0], spans[i][k][1],
+                            searches[i].firstMatch
+                                ? step.getSuccessCorrelation()
+                                : Float.POSITIVE_INFINITY);
+                    } else {
+                        parallel[i] = true;
+                    }
+                }
+            }
+
+            /* perform the steps of this round in parallel segments */
+            for (int i = 0; i < n; i++){
+                if (parallel[i]){
+                    stepResults[i][k] = searches[i].searcher.searchStep(
+                        mp3, spans[i][k][0], spans[i][k][1], pool);
+                }
+            }
+
+            /* perform the other steps of this round in a single pass */
+            if (pass.size() > 0){
+                final SearchResult[] passResults = pass.searchSteps(mp3);
+                for (int i = 0; i < n; i++){
+                    if (ids[i] >= 0){
+                        stepResults[i][k] = passResults[ids[i]];
+                    }
+                }
+            }
+
+            /* check for success */
+            for (int i = 0; i < n; i++){
+                if (strategies[i] == null || succeeded[i] || k >= strategies[i].length){
+                    continue;
+                }
+
+                final SearchResult stepResult = stepResults[i][k];
+                if(stepResult != null &&
+                    stepResult.getCorrelation() >= strategies[i][k].getSuccessCorrelation()){
+                    result[i] = stepResult;
+                    succeeded[i] = true;
+                }
+            }
         }
 
-        return result;
+        return SearchResult.fillInMissingPositionFields(result, mp3);
+    }
+
+    /** Sets whether each step ends at the first match that reaches the
+        success correlation of the step instead of looking for the best match
+        in the time span of the step, see {@link MP3Search#searchFirstMatch}.
+        This saves reading most of the time span if the pattern is near its
+        beginning. A step whose time span equals that of an earlier step
+        reuses its result, which is the best match if the earlier step has
+        not succeeded. Steps that end at the first match are not split into
+        parallel segments.
+        The default is the value of the system property <code>firstMatch</code>.
+        @param firstMatch whether to search for the first match
+    */
+    public void setFirstMatch(boolean firstMatch){
+        this.firstMatch = firstMatch;
+    }
+
+    /** Returns whether each step ends at the first match.
+        @see #setFirstMatch
+    */
+    public boolean isFirstMatch(){
+        return firstMatch;
     }
 
     public void setStrategy(SearchStep[] strategy){
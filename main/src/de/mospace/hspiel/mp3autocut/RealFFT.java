@@ -0,0 +1,219 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+/** A fast fourier transform of real sequences whose length is a power
+    of two. Spectra are stored as separate arrays of real and imaginary
+    parts and hold the n/2 + 1 non-redundant frequencies 0, ..., n/2.
+    The transforms do not allocate any memory.
+    <p>A real sequence of length n is transformed as a complex sequence
+    of length n/2 whose real and imaginary parts are the even and odd
+    entries of the real sequence.</p>
+    <p>RealFFT objects use an internal workspace and are therefore not
+    thread-safe. Use {@link #getInstance} to obtain an instance that is
+    private to the current thread.</p>
+*/
+final class RealFFT
+{
+    private static final ThreadLocal<RealFFT[]> INSTANCES =
+        new ThreadLocal<RealFFT[]>(){
+            @Override
+            protected RealFFT[] initialValue(){
+                return new RealFFT[Integer.SIZE];
+            }
+        };
+
+    /** The length of the real sequences. */
+    private final int n;
+
+    /** The length of the complex sequences, n/2. */
+    private final int m;
+
+    /** exp(-2 pi i k/n) for k = 0, ..., m - 1. Every other entry is a
+        twiddle factor of the complex transform of length m. */
+    private final double[] cos;
+    private final double[] sin;
+
+    /** The bit-reversal permutation of 0, ..., m - 1. */
+    private final int[] bitrev;
+
+    /** Workspace for the complex transform. */
+    private final double[] wre;
+    private final double[] wim;
+
+    /** Constructs a new RealFFT for real sequences of the specified length.
+        @param n a power of two &ge; 2
+    */
+    RealFFT(int n)
+    {
+        if (n < 2 || Integer.bitCount(n) != 1)
+        {
+            throw new IllegalArgumentException(n + " is not a power of two >= 2.");
+        }
+
+        this.n = n;
+        this.m = n / 2;
+        this.cos = new double[m];
+        this.sin = new double[m];
+        for (int k = 0; k < m; k++)
+        {
+            final double phi = -2 * Math.PI * k / n;
+            cos[k] = Math.cos(phi);
+            sin[k] = Math.sin(phi);
+        }
+
+        this.bitrev = new int[m];
+        final int bits = Integer.numberOfTrailingZeros(m);
+        for (int k = 0; k < m; k++)
+        {
+            bitrev[k] = (bits == 0) ? 0 : Integer.reverse(k) >>> (Integer.SIZE - bits);
+        }
+
+        this.wre = new double[m];
+        this.wim = new double[m];
+    }
+
+    /** Returns a RealFFT for real sequences of the specified length that
+        is private to the current thread.
+        @param n a power of two &ge; 2
+    */
+    static RealFFT getInstance(int n)
+    {
+        final RealFFT[] instances = INSTANCES.get();
+        final int log2 = Integer.numberOfTrailingZeros(n);
+        if (instances[log2] == null || instances[log2].n != n)
+        {
+            instances[log2] = new RealFFT(n);
+        }
+        return instances[log2];
+    }
+
+    /** Returns the length of the real sequences of this RealFFT. */
+    int size()
+    {
+        return n;
+    }
+
+    /** Computes the spectrum of the specified real sequence.
+        @param x the real sequence of length n
+        @param re output: the real parts of the spectrum, length n/2 + 1
+        @param im output: the imaginary parts of the spectrum, length n/2 + 1
+    */
+    void forward(double[] x, double[] re, double[] im)
+    {
+        /* pack even and odd entries into a complex sequence */
+        for (int k = 0; k < m; k++)
+        {
+            final int j = bitrev[k];
+            wre[j] = x[2 * k];
+            wim[j] = x[2 * k + 1];
+        }
+
+        transform(-1);
+
+        /* untangle the spectra of even and odd entries */
+        re[0] = wre[0] + wim[0];
+        im[0] = 0;
+        re[m] = wre[0] - wim[0];
+        im[m] = 0;
+        for (int k = 1; k < m; k++)
+        {
+            final int l = m - k;
+
+            /* e = (z[k] + conj(z[l]))/2, o = (z[k] - conj(z[l]))/2i */
+            final double ere = 0.5 * (wre[k] + wre[l]);
+            final double eim = 0.5 * (wim[k] - wim[l]);
+            final double ore = 0.5 * (wim[k] + wim[l]);
+            final double oim = 0.5 * (wre[l] - wre[k]);
+
+            /* x[k] = e + exp(-2 pi i k/n) o */
+            re[k] = ere + cos[k] * ore - sin[k] * oim;
+            im[k] = eim + cos[k] * oim + sin[k] * ore;
+        }
+    }
+
+    /** Computes the real sequence with the specified spectrum.
+        This is the inverse of {@link #forward}.
+        @param re the real parts of the spectrum, length n/2 + 1
+        @param im the imaginary parts of the spectrum, length n/2 + 1
+        @param x output: the real sequence of length n
+    */
+    void inverse(double[] re, double[] im, double[] x)
+    {
+        /* entangle the spectra of even and odd entries */
+        for (int k = 0; k < m; k++)
+        {
+            final int l = m - k;
+
+            /* e = (x[k] + conj(x[l]))/2, o = (x[k] - conj(x[l]))/2 exp(2 pi i k/n) */
+            final double ere = 0.5 * (re[k] + re[l]);
+            final double eim = 0.5 * (im[k] - im[l]);
+            final double dre = 0.5 * (re[k] - re[l]);
+            final double dim = 0.5 * (im[k] + im[l]);
+            final double ore = cos[k] * dre + sin[k] * dim;
+            final double oim = cos[k] * dim - sin[k] * dre;
+
+            /* z[k] = e + i o */
+            final int j = bitrev[k];
+            wre[j] = ere - oim;
+            wim[j] = eim + ore;
+        }
+
+        transform(1);
+
+        /* unpack and scale */
+        final double scale = 1.0 / m;
+        for (int k = 0; k < m; k++)
+        {
+            x[2 * k] = wre[k] * scale;
+            x[2 * k + 1] = wim[k] * scale;
+        }
+    }
+
+    /** In-place radix-2 transform of the bit-reversed complex sequence in
+        the workspace. Does not scale.
+        @param sign -1 for the forward and 1 for the backward transform
+    */
+    private void transform(int sign)
+    {
+        for (int len = 2; len <= m; len <<= 1)
+        {
+            final int half = len >> 1;
+
+            /* twiddle factors of length len are every (n/len)-th entry */
+            final int step = n / len;
+            for (int i = 0; i < m; i += len)
+            {
+                for (int k = 0, t = 0; k < half; k++, t += step)
+                {
+                    final double c = cos[t];
+                    final double s = sign * -sin[t];
+                    final int u = i + k;
+                    final int v = u + half;
+
+                    /* (xre, xim) = exp(sign 2 pi i k/len) * z[v] */
+                    final double xre = wre[v] * c - wim[v] * s;
+                    final double xim = wim[v] * c + wre[v] * s;
+                    wre[v] = wre[u] - xre;
+                    wim[v] = wim[u] - xim;
+                    wre[u] += xre;
+                    wim[u] += xim;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A cache for the searches of an {@link MP3AutoCut}.
+    <p>Each search is loaded once, by the first thread that asks for it.
+    Threads that ask for the same search wait for that thread, threads
+    that ask for other searches do not. Searches that are not found
+    are cached as <code>null</code>.</p>
+    <p>A cached search is loaded again when the modification time of
+    one of its marker files, <code>key.pattern</code> and
+    <code>key.mp3</code>, changes, or when one of them is added or
+    removed. A missing search is looked for again when
+    the modification time of the marker directory changes, i.e. when
+    a file has been added to it.</p>
+    <p>The cache holds at most <code>maxSize</code> searches. When
+    there are more, the searches that have not been used for the longest
+    time are removed.</p>
+*/
+final class SearchCache
+{
+    private final MP3AutoCut loader;
+    private final int maxSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** counts the calls to get, for the least recently used eviction */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** Creates a new search cache.
+        @param loader the MP3AutoCut that finds and loads the searches
+        @param maxSize the maximum number of searches to keep
+    */
+    SearchCache(MP3AutoCut loader, int maxSize)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("maxSize " + maxSize);
+        }
+        this.loader = loader;
+        this.maxSize = maxSize;
+    }
+
+    /** Gets the specified search from the cache or from the marker directory.
+        @param key the name of the search, usually a cropped mp3 file name
+        @param which either START or END
+        @return the search or <code>null</code> if no such search is found
+    */
+    MultiStepSearch get(final String key, final int which)
+    throws IOException, MP3SearchException
+    {
+        while (true)
+        {
+            Entry e = entries.get(key);
+            if (e == null)
+            {
+                final Entry created = new Entry(key, which);
+                created.lastUsed = clock.incrementAndGet();
+                e = entries.putIfAbsent(key, created);
+                if (e == null)
+                {
+                    e = created;
+                    e.task.run();
+                    evict();
+                }
+            }
+            else if (e.isStale())
+            {
+                entries.remove(key, e);
+                continue;
+            }
+            e.lastUsed = clock.incrementAndGet();
+            try
+            {
+                return e.task.get();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading " + key);
+            }
+            catch (ExecutionException ex)
+            {
+                /* do not cache failures */
+                entries.remove(key, e);
+                final Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+                else if (cause instanceof MP3SearchException)
+                {
+                    throw (MP3SearchException) cause;
+                }
+                else if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                }
+                else if (cause instanceof Error)
+                {
+                    throw (Error) cause;
+                }
+                throw new MP3SearchException(cause);
+            }
+        }
+    }
+
+    /** Removes all searches. */
+    void clear()
+    {
+        entries.clear();
+    }
+
+    /** Removes the least recently used searches that have been loaded
+        until there are no more than maxSize. */
+    private void evict()
+    {
+        while (entries.size() > maxSize)
+        {
+            Map.Entry<String, Entry> oldest = null;
+            for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); )
+            {
+                final Map.Entry<String, Entry> e = it.next();
+                if (e.getValue().task.isDone()
+                    && (oldest == null || e.getValue().lastUsed < oldest.getValue().lastUsed))
+                {
+                    oldest = e;
+                }
+            }
+            if (oldest == null)
+            {
+                return;
+            }
+            entries.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /** A search that is being loaded or has been loaded. */
+    private final class Entry implements Callable<MultiStepSearch>
+    {
+        private final String key;
+        private final int which;
+        final FutureTask<MultiStepSearch> task = new FutureTask<MultiStepSearch>(this);
+        volatile long lastUsed;
+
+        /** the marker files, or the marker directory if there is no marker */
+        private volatile File[] sources = null;
+        private volatile long[] sourcesModified;
+
+        Entry(String key, int which)
+        {
+            this.key = key;
+            this.which = which;
+        }
+
+        @Override
+        public MultiStepSearch call() throws IOException, MP3SearchException
+        {
+            final File dir = MP3AutoCut.getMarkerDirectory();
+            final long dirModified = dir.lastModified();
+            final File marker = loader.findMarker(key);
+            if (marker == null)
+            {
+                sourcesModified = new long[]{ dirModified };
+                sources = new File[]{ dir };
+                return null;
+            }
+            final File mp3 = new File(dir, key + ".mp3");
+            final File pattern = new File(dir, key + ".pattern");
+            final long mp3Modified = mp3.lastModified();
+            final MultiStepSearch search = loader.loadSearch(marker, key, which);
+
+            /* after loading, which writes the .pattern of an mp3 marker */
+            sourcesModified = new long[]{ mp3Modified, pattern.lastModified() };
+            sources = new File[]{ mp3, pattern };
+            return search;
+        }
+
+        /** Returns whether the marker files have changed since the search was loaded. */
+        boolean isStale()
+        {
+            final File[] files = sources;
+            if (!task.isDone() || files == null)
+            {
+                return false;
+            }
+            final long[] modified = sourcesModified;
+            for (int i = 0; i < files.length; i++)
+            {
+                if (files[i].lastModified() != modified[i])
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
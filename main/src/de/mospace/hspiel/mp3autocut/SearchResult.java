@@ -19,6 +19,9 @@ package de.mospace.hspiel.mp3autocut;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class SearchResult
 {
@@ -55,5 +58,53 @@ public class SearchResult
                 mp3);
         return new SearchResult(positions[0], positions[1], this.getCorrelation());
     }
+
+    /** Fills in the missing position fields of all specified search results
+        in a single pass over the mp3 file.
+        @param results search results whose Mp3Position fields carry only
+            framecount information, may contain <code>null</code> entries
+        @param mp3 the file that has been searched
+        @return a new array with the completed search results
+    */
+    static SearchResult[] fillInMissingPositionFields(SearchResult[] results, File mp3)
+    throws IOException, MP3SearchException
+    {
+        /* collect the distinct frame counts in ascending order */
+        final SortedSet<Integer> frameCounts = new TreeSet<Integer>();
+        for (SearchResult r : results)
+        {
+            if (r != null)
+            {
+                frameCounts.add(r.getStart().getFrameCount());
+                frameCounts.add(r.getEnd().getFrameCount());
+            }
+        }
+
+        final SearchResult[] completed = new SearchResult[results.length];
+        if (!frameCounts.isEmpty())
+        {
+            final int[] counts = new int[frameCounts.size()];
+            int i = 0;
+            for (Integer count : frameCounts)
+            {
+                counts[i++] = count;
+            }
+
+            final MP3Position[] positions = MP3Position.getPositionsForFrameCounts(counts, mp3);
+            for (int k = 0; k < results.length; k++)
+            {
+                final SearchResult r = results[k];
+                if (r != null)
+                {
+                    completed[k] = new SearchResult(
+                        positions[Arrays.binarySearch(counts, r.getStart().getFrameCount())],
+                        positions[Arrays.binarySearch(counts, r.getEnd().getFrameCount())],
+                        r.getCorrelation());
+                }
+            }
+        }
+
+        return completed;
+    }
 }
 
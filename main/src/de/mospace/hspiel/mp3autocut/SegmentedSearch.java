@@ -0,0 +1,431 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Searches a single time span of an mp3 file for a pattern in segments
+    that are decoded and correlated in parallel.
+    <p>The sequential search correlates the loudness stream of the time
+    span in blocks, see {@link StreamingCorrelator}. A segment is a run of
+    consecutive blocks. It reads the frames that these blocks contain,
+    so consecutive segments overlap by the overlap of the blocks, which is
+    one pattern length. Each segment has its own MP3Reader, which starts
+    some frames before the segment at a byte offset taken from the
+    {@link FrameIndex} of the file. The warm-up frames fill the bit
+    reservoir, the overlap of the inverse MDCT and the polyphase synthesis
+    filter. Their number is chosen such that the synthesis filter is in
+    the same phase as in the sequential search. The segments therefore
+    pass the same loudness values to the same blocks as the sequential
+    search, and the first of the segment maxima is the maximum of the
+    sequential search, bit for bit.</p>
+    <p>Segments verify that they decode every frame of the time span and
+    that their frames lie where the index expects them. If they do not,
+    for instance because of junk between frames, the search returns
+    <code>null</code> and the caller falls back to the sequential search.</p>
+*/
+final class SegmentedSearch
+{
+    /** The least number of frames decoded before the first frame of a segment. */
+    private final static int WARMUP_FRAMES = 16;
+
+    /** The number of frames after which the synthesis filter returns to
+        the same phase. The filter cycles through 16 write positions, one
+        per 32 samples, and a frame has 18 or 36 such steps. */
+    private final static int PHASE_FRAMES = 8;
+
+    /** The least number of frames that a segment correlates. */
+    private final static int MIN_SEGMENT_FRAMES = 512;
+
+    /** The number of frames at the beginning of the time span that may
+        be missing their main data. */
+    private final static int MAX_SILENT_FRAMES = 64;
+
+    private final static int POINTS = MP3Search.POINTS_PER_FRAME;
+
+    private final MP3Search search;
+    private final File mp3;
+    private final FrameIndex index;
+    private final int patternLength;
+    private final int fftSize;
+    private final int hop;
+
+    /** The number of frames read before the time span. */
+    private int startFrames;
+
+    /** The number of the first frame whose loudness is correlated,
+        counting from one. */
+    private int firstFrame;
+
+    /** The number of loudness values read by the sequential search. */
+    private int points;
+
+    /** The number of offsets at which the sequential search computes correlations. */
+    private int offsets;
+
+    private SegmentedSearch(MP3Search search, File mp3, FrameIndex index)
+    {
+        this.search = search;
+        this.mp3 = mp3;
+        this.index = index;
+        this.patternLength = search.getPatternLength();
+        this.fftSize = search.getBlockSize();
+        this.hop = search.getHopSize();
+    }
+
+    /** Searches the specified time span of the specified file for the
+        pattern of the specified search.
+        @param search the compiled pattern
+        @param mp3 the file to search
+        @param tims the playing time in milliseconds at which to begin the search
+        @param tfms the playing time in milliseconds at which to stop the search
+        @param pool the pool on which to search the segments
+        @return a SearchResult whose Mp3Position fields carry only framecount
+            information, or <code>null</code> if the time span cannot be
+            searched in segments
+    */
+    static SearchResult search(MP3Search search, File mp3, int tims, int tfms,
+            ForkJoinPool pool) throws IOException, MP3SearchException
+    {
+        final SegmentedSearch me = new SegmentedSearch(search, mp3, FrameIndex.get(mp3));
+        return me.layout(tims, tfms) ? me.run(pool) : null;
+    }
+
+    /** Determines the frames and loudness values that the sequential
+        search reads, replaying the bookkeeping of
+        {@link MP3Search.Correlation#wantsNextFrame}.
+        @return false if the time span is too short to be split
+    */
+    private boolean layout(int tims, int tfms) throws IOException, MP3SearchException
+    {
+        /* the correlation starts after the least frame count at tims */
+        final MP3Position start = index.getPositionForTime(tims);
+        if (start == null)
+        {
+            return false;
+        }
+        startFrames = start.getFrameCount();
+
+        /* frames at the start may lack the main data in the bit reservoir */
+        final int silent = silentFrames(startFrames);
+        if (silent < 0)
+        {
+            return false;
+        }
+        firstFrame = startFrames + silent + 1;
+        final int available = POINTS * (index.getFrameCount() - firstFrame + 1);
+
+        /* the end is set at the least frame count after tfms */
+        int end = Integer.MAX_VALUE;
+        final MP3Position stop = (tfms == Integer.MAX_VALUE)
+            ? null
+            : index.getPositionForTime(tfms + 1);
+        if (stop != null)
+        {
+            end = POINTS * Math.max(0, stop.getFrameCount() - firstFrame + 1);
+        }
+
+        /* whole frames are read until the patterns at all offsets are complete */
+        points = available;
+        if (end != Integer.MAX_VALUE)
+        {
+            final int needed = end + patternLength - 1;
+            points = Math.min(available, Math.max(end,
+                (needed + POINTS - 1) / POINTS * POINTS));
+        }
+        offsets = Math.min(end, points);
+
+        return offsets > 0;
+    }
+
+    /** Correlates the segments and merges their maxima. */
+    private SearchResult run(ForkJoinPool pool) throws IOException, MP3SearchException
+    {
+        final int blocks = (offsets + hop - 1) / hop;
+        final int blocksPerSegment = Math.max(
+            (blocks + pool.getParallelism() - 1) / pool.getParallelism(),
+            (MIN_SEGMENT_FRAMES * POINTS + hop - 1) / hop);
+        if (blocksPerSegment >= blocks)
+        {
+            return null;
+        }
+
+        final List<Segment> segments = new ArrayList<Segment>();
+        for (int j = 0; j < blocks; j += blocksPerSegment)
+        {
+            segments.add(new Segment(j, Math.min(j + blocksPerSegment, blocks)));
+        }
+
+        /* the first maximum wins, as in the sequential search */
+        float maxCorr = Float.NEGATIVE_INFINITY;
+        int maxCorrOffset = -1;
+        for (Future<Segment> f : pool.invokeAll(segments))
+        {
+            final Segment segment = get(f);
+            if (segment == null)
+            {
+                return null;
+            }
+            if (segment.maxCorr > maxCorr)
+            {
+                maxCorr = segment.maxCorr;
+                maxCorrOffset = segment.maxCorrOffset;
+            }
+        }
+
+        return search.newResult(maxCorr, maxCorrOffset, firstFrame - 1);
+    }
+
+    /** Returns the result of a segment, rethrowing its exception. */
+    private static Segment get(Future<Segment> f) throws IOException, MP3SearchException
+    {
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new MP3SearchException(ex);
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof MP3SearchException)
+            {
+                throw (MP3SearchException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new MP3SearchException(cause);
+        }
+    }
+
+    /** Returns the number of frames after the specified frame count that a
+        new decoder decodes without output, or -1 if there is no output. */
+    private int silentFrames(int before) throws IOException, MP3SearchException
+    {
+        final FileInputStream in = new FileInputStream(mp3);
+        try
+        {
+            final Frames frames = new Frames(open(in, before));
+            for (int k = 0; k < MAX_SILENT_FRAMES && frames.read(); k++)
+            {
+                if (frames.hasOutput())
+                {
+                    return k;
+                }
+            }
+            return -1;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** Returns a reader of the specified file that starts after the
+        specified number of frames. */
+    private MP3Reader open(FileInputStream in, int before) throws IOException
+    {
+        in.getChannel().position(index.getPositionForFrameCount(before).getByteOffset());
+
+        /* without a FrameScanner, whose offsets would be off */
+        return new MP3Reader((InputStream) in, search.getQuality());
+    }
+
+    /** Reads frames like the sequential search. */
+    private class Frames
+    {
+        private final MP3Reader reader;
+        private final LoudnessOBuffer sampleLoudness;
+        private final float[] energy;
+        private int granules;
+
+        Frames(MP3Reader reader)
+        {
+            this.reader = reader;
+            this.sampleLoudness = reader.createLoudnessOutput();
+            this.energy = search.isFastEnvelope() ? new float[2] : null;
+        }
+
+        /** Reads the next frame.
+            @return false at the end of the file
+        */
+        boolean read() throws MP3SearchException
+        {
+            sampleLoudness.clear_buffer();
+            granules = reader.readFrame(!search.isFastEnvelope(), energy);
+            return reader.hasMoreFrames();
+        }
+
+        /** Returns whether the last frame has produced loudness values. */
+        boolean hasOutput()
+        {
+            return search.isFastEnvelope() ? granules > 0 : sampleLoudness.getSampleCount() > 0;
+        }
+
+        /** Computes the loudness of the last frame. */
+        void loudness(double[] frameloudness)
+        {
+            if (search.isFastEnvelope())
+            {
+                search.checkSamplesPerFrame(granules * MP3Search.SAMPLES_PER_GRANULE);
+                MP3Search.energyLoudness(energy, granules, frameloudness);
+            }
+            else
+            {
+                search.checkSamplesPerFrame(sampleLoudness.getSampleCount());
+                sampleLoudness.frameLoudness(frameloudness);
+            }
+        }
+    }
+
+    /** The correlation of a run of consecutive blocks. */
+    private class Segment implements Callable<Segment>
+    {
+        /* the first block and the block after the segment */
+        private final int j0;
+        private final int j1;
+
+        float maxCorr;
+        int maxCorrOffset;
+
+        Segment(int j0, int j1)
+        {
+            this.j0 = j0;
+            this.j1 = j1;
+        }
+
+        /** Correlates the segment.
+            @return this segment or <code>null</code> if the segment cannot
+                reproduce the sequential search
+        */
+        @Override
+        public Segment call() throws IOException, MP3SearchException
+        {
+            /* the loudness values of the blocks and the frames that hold them */
+            final int p0 = j0 * hop;
+            final int p1 = Math.min(points, (j1 - 1) * hop + fftSize);
+            final int first = firstFrame + p0 / POINTS;
+            final int last = firstFrame + (p1 - 1) / POINTS;
+
+            /* the sequential decoder has produced output for all frames since firstFrame */
+            final int phase = (first - firstFrame) % PHASE_FRAMES;
+            /* the first segment starts where the sequential search starts */
+            int warmup = (j0 == 0) ? firstFrame - 1 - startFrames : WARMUP_FRAMES;
+
+            final FileInputStream in = new FileInputStream(mp3);
+            try
+            {
+                for (int attempt = 0; attempt < PHASE_FRAMES; attempt++)
+                {
+                    final int before = first - 1 - warmup;
+                    if (before < 0)
+                    {
+                        return null;
+                    }
+
+                    /* decode the warm-up frames */
+                    final Frames frames = new Frames(open(in, before));
+                    int outputs = 0;
+                    for (int k = 0; k < warmup; k++)
+                    {
+                        if (!frames.read())
+                        {
+                            return null;
+                        }
+                        if (frames.hasOutput())
+                        {
+                            outputs++;
+                        }
+                    }
+
+                    final int lag = (phase - outputs % PHASE_FRAMES + PHASE_FRAMES) % PHASE_FRAMES;
+                    if (lag == 0)
+                    {
+                        return correlate(frames, first, last, p0, p1,
+                            index.getPositionForFrameCount(before).getByteOffset());
+                    }
+                    warmup += lag;
+                }
+                return null;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        /** Reads the frames of the segment and correlates their loudness. */
+        private Segment correlate(Frames frames, int first, int last, int p0, int p1,
+                long offset) throws MP3SearchException
+        {
+            final double[][] spectrum = search.getSpectrum(fftSize);
+            final StreamingCorrelator correlator = new StreamingCorrelator(patternLength,
+                spectrum[0], spectrum[1], fftSize, hop, null);
+            correlator.setEnd(Math.min(j1 * hop, offsets) - p0);
+
+            final double[] frameloudness = new double[POINTS];
+            for (int frame = first; frame <= last; frame++)
+            {
+                if (!frames.read() || !frames.hasOutput())
+                {
+                    return null;
+                }
+                frames.loudness(frameloudness);
+
+                /* the loudness values of the frame within [p0, p1) */
+                final int p = (frame - firstFrame) * POINTS;
+                final int from = Math.max(p, p0);
+                final int to = Math.min(p + POINTS, p1);
+                correlator.feed(frameloudness, from - p, to - from);
+            }
+
+            /* the frames must be those of the index */
+            if (offset + frames.reader.getPosition() !=
+                index.getPositionForFrameCount(last).getByteOffset())
+            {
+                return null;
+            }
+
+            correlator.finish();
+            maxCorr = correlator.getMaxCorrelation();
+            maxCorrOffset = p0 + correlator.getMaxCorrelationOffset();
+            return this;
+        }
+    }
+}
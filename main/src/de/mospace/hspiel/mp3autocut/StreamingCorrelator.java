@@ -0,0 +1,330 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+/** Computes the normalized cross correlation of a stream of loudness
+    values with a pattern using the overlap-save method.
+    <p>The correlation at offset t is the scalar product of the pattern
+    with the loudness values t, ..., t + patternLength - 1 of the stream,
+    divided by the l2 norm of these loudness values. The stream is
+    processed in blocks of fftSize values. Consecutive blocks overlap
+    by fftSize - hop values, and each block yields the correlations
+    at hop consecutive offsets.</p>
+    <p>Whenever the correlation has a peak, the peak is passed to the
+    {@link PeakListener} of the correlator. A peak is an offset whose
+    correlation is greater than the correlations at the patternLength
+    preceding offsets and not less than the correlations at the
+    patternLength following offsets.</p>
+    <p>StreamingCorrelator objects are not thread-safe.</p>
+*/
+final class StreamingCorrelator
+{
+    /** Receives the peaks of the correlation. */
+    interface PeakListener
+    {
+        /** Called when a peak of the correlation has been found.
+            @param offset the offset of the peak in the loudness stream
+            @param correlation the correlation at the peak
+        */
+        void peak(int offset, float correlation);
+    }
+
+    private final int patternLength;
+    private final int fftSize;
+    private final int hop;
+    private final double[] patternRe;
+    private final double[] patternIm;
+    private final PeakListener listener;
+
+    /** The current block. Its first entry is the loudness value at blockOffset. */
+    private final double[] block;
+    private int blockOffset = 0;
+    private int fill = 0;
+
+    /* workspace */
+    private final double[] spectrumRe;
+    private final double[] spectrumIm;
+    private final double[] crossCorrelation;
+
+    /** The number of loudness values fed into this correlator. */
+    private int points = 0;
+
+    /** Correlations are only computed for offsets lower than end. */
+    private int end = Integer.MAX_VALUE;
+
+    private boolean finished = false;
+
+    /* the global maximum */
+    private float maxCorr = Float.NEGATIVE_INFINITY;
+    private int maxCorrOffset = -1;
+
+    /* peak detection */
+    private float candidateCorr;
+    private int candidateOffset = -1;
+
+    /* maximum of the last patternLength correlations: a monotonic queue */
+    private final int[] queueOffset;
+    private final float[] queueCorr;
+    private int queueHead = 0;
+    private int queueSize = 0;
+
+    /** Constructs a new StreamingCorrelator.
+        @param patternLength the length of the pattern
+        @param patternRe the real parts of the spectrum of the reversed pattern,
+            zero-padded to fftSize, see {@link RealFFT}
+        @param patternIm the imaginary parts of the spectrum of the reversed pattern
+        @param fftSize the block size, a power of two &ge; patternLength
+        @param hop the number of offsets per block, between 1 and
+            fftSize - patternLength + 1
+        @param listener receives the peaks of the correlation, may be <code>null</code>
+    */
+    StreamingCorrelator(int patternLength, double[] patternRe, double[] patternIm,
+            int fftSize, int hop, PeakListener listener)
+    {
+        if (hop < 1 || hop > fftSize - patternLength + 1)
+        {
+            throw new IllegalArgumentException("Illegal hop size " + hop +
+                " for block size " + fftSize + " and pattern length " + patternLength);
+        }
+
+        this.patternLength = patternLength;
+        this.fftSize = fftSize;
+        this.hop = hop;
+        this.patternRe = patternRe;
+        this.patternIm = patternIm;
+        this.listener = listener;
+        this.block = new double[fftSize];
+        this.spectrumRe = new double[patternRe.length];
+        this.spectrumIm = new double[patternIm.length];
+        this.crossCorrelation = new double[fftSize];
+        this.queueOffset = new int[patternLength + 1];
+        this.queueCorr = new float[patternLength + 1];
+    }
+
+    /** Feeds loudness values into this correlator. Correlations are
+        computed as soon as enough values are available.
+        @param loudness the next loudness values of the stream
+    */
+    void feed(double[] loudness)
+    {
+        feed(loudness, 0, loudness.length);
+    }
+
+    /** Feeds loudness values into this correlator. Correlations are
+        computed as soon as enough values are available.
+        @param loudness an array with the next loudness values of the stream
+        @param off the index of the first value in the array
+        @param len the number of values
+    */
+    void feed(double[] loudness, int off, int len)
+    {
+        if (finished)
+        {
+            throw new IllegalStateException("Correlator is finished.");
+        }
+
+        int k = off;
+        final int kend = off + len;
+        while (k < kend)
+        {
+            final int n = Math.min(kend - k, fftSize - fill);
+            System.arraycopy(loudness, k, block, fill, n);
+            fill += n;
+            k += n;
+            points += n;
+            if (fill == fftSize)
+            {
+                process(blockOffset + hop);
+            }
+        }
+    }
+
+    /** Restricts the correlation to offsets lower than the specified offset.
+        @param end the number of offsets at which to compute the correlation
+    */
+    void setEnd(int end)
+    {
+        this.end = Math.min(this.end, end);
+    }
+
+    /** Returns whether the correlator needs more loudness values to compute
+        the correlations at all offsets before the end set by {@link #setEnd}. */
+    boolean needsMoreData()
+    {
+        return !finished && (end == Integer.MAX_VALUE ||
+            points < (long) end + patternLength - 1);
+    }
+
+    /** Computes the correlations at all remaining offsets up to the end
+        set by {@link #setEnd} or up to the number of loudness values fed
+        into this correlator. Missing loudness values at the end of the
+        stream are taken to be zero.
+    */
+    void finish()
+    {
+        if (!finished)
+        {
+            final int last = Math.min(end, points);
+            while (blockOffset < last)
+            {
+                java.util.Arrays.fill(block, fill, fftSize, 0.0);
+                fill = fftSize;
+                process(Math.min(blockOffset + hop, last));
+            }
+
+            /* no further correlations will be computed */
+            if (candidateOffset >= 0)
+            {
+                emit();
+            }
+            finished = true;
+        }
+    }
+
+    /** Returns the number of loudness values fed into this correlator. */
+    int getPointCount()
+    {
+        return points;
+    }
+
+    /** Returns the maximum correlation found so far. */
+    float getMaxCorrelation()
+    {
+        return maxCorr;
+    }
+
+    /** Returns the first offset at which the maximum correlation has been found
+        or -1 if no correlation has been computed. */
+    int getMaxCorrelationOffset()
+    {
+        return maxCorrOffset;
+    }
+
+    /** Correlates the full block and advances it by one hop.
+        @param next the offset up to which correlations are evaluated
+    */
+    private void process(int next)
+    {
+        final int last = Math.min(next, end);
+        if (blockOffset < last)
+        {
+            /* convolve with the reversed pattern */
+            final RealFFT fft = RealFFT.getInstance(fftSize);
+            fft.forward(block, spectrumRe, spectrumIm);
+            for (int k = 0; k < spectrumRe.length; k++)
+            {
+                final double re = spectrumRe[k];
+                final double im = spectrumIm[k];
+                spectrumRe[k] = re * patternRe[k] - im * patternIm[k];
+                spectrumIm[k] = re * patternIm[k] + im * patternRe[k];
+            }
+            fft.inverse(spectrumRe, spectrumIm, crossCorrelation);
+
+            /* the l2 norm of the first window of the block */
+            double nsqr = 0;
+            for (int j = 0; j < patternLength; j++)
+            {
+                nsqr += block[j] * block[j];
+            }
+
+            for (int t = blockOffset, k = 0; t < last; t++, k++)
+            {
+                if (k > 0)
+                {
+                    /* slide the window */
+                    final double out = block[k - 1];
+                    final double in = block[k + patternLength - 1];
+                    nsqr = nsqr - out * out + in * in;
+                }
+
+                /* k + patternLength - 1 corresponds to offset t */
+                final double ck =
+                    crossCorrelation[k + patternLength - 1] / Math.sqrt(nsqr);
+                evaluate(t, (float) ck);
+            }
+        }
+
+        /* keep the overlap */
+        System.arraycopy(block, hop, block, 0, fftSize - hop);
+        fill -= hop;
+        blockOffset += hop;
+    }
+
+    /** Updates the maximum and the peak detection with the correlation at
+        the specified offset. Offsets must be evaluated in ascending order. */
+    private void evaluate(int t, float c)
+    {
+        if (c > maxCorr)
+        {
+            maxCorr = c;
+            maxCorrOffset = t;
+        }
+
+        /* confirm the candidate if nothing exceeded it within one pattern length */
+        if (candidateOffset >= 0 && t - candidateOffset > patternLength)
+        {
+            emit();
+        }
+
+        /* drop correlations that are older than one pattern length */
+        while (queueSize > 0 && queueOffset[queueHead] < t - patternLength)
+        {
+            queueHead = (queueHead + 1) % queueOffset.length;
+            queueSize--;
+        }
+
+        /* c is a candidate if it exceeds the candidate or all preceding correlations */
+        if (candidateOffset >= 0)
+        {
+            if (c > candidateCorr)
+            {
+                candidateOffset = t;
+                candidateCorr = c;
+            }
+        }
+        else if (queueSize == 0 || c > queueCorr[queueHead])
+        {
+            candidateOffset = t;
+            candidateCorr = c;
+        }
+
+        /* push c, removing all smaller correlations */
+        while (queueSize > 0)
+        {
+            final int tail = (queueHead + queueSize - 1) % queueOffset.length;
+            if (queueCorr[tail] > c)
+            {
+                break;
+            }
+            queueSize--;
+        }
+        final int tail = (queueHead + queueSize) % queueOffset.length;
+        queueOffset[tail] = t;
+        queueCorr[tail] = c;
+        queueSize++;
+    }
+
+    private void emit()
+    {
+        final int offset = candidateOffset;
+        candidateOffset = -1;
+        if (listener != null)
+        {
+            listener.peak(offset, candidateCorr);
+        }
+    }
+}
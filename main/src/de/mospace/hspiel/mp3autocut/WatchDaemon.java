@@ -0,0 +1,295 @@
+/* Copyright (C) 2026 Moritz Ringler
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.mospace.hspiel.mp3autocut;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/** Watches directories and cuts the mp3 files that appear in them.
+    <p>A file is cut when its length and modification time have not
+    changed for <code>-DstableSeconds</code> seconds (default 5), so that
+    files that are still being recorded are left alone. All files are cut
+    by the same {@link MP3AutoCut}, which keeps its searches and patterns
+    between files.</p>
+    <p>The length and modification time of each file that has been cut
+    are stored in <code>watch.properties</code> in the
+    {@link MP3AutoCut#getSettingDirectory setting directory}. After a
+    restart these files are skipped unless they have changed.
+    Files that could not be cut are recorded as well and only tried
+    again when they change.</p>
+    <p>Like {@link MP3AutoCut#cut(File[], File)}, no more than
+    <code>-DmaxReaders</code> files are read at once, and the remaining
+    processors search these files in segments.</p>
+*/
+public final class WatchDaemon{
+    private static final String STATE_FILE = "watch.properties";
+    private static final String DONE = "done";
+    private static final String FAILED = "failed";
+
+    private final MP3AutoCut cutter;
+    private final Path[] dirs;
+    private final File outputdir;
+    private final long stableMillis;
+    private final File stateFile;
+
+    /** maps absolute path to "length lastModified status" */
+    private final Properties state = new Properties();
+
+    /** files that have been seen but not yet queued,
+        mapped to their length, modification time and the time
+        at which these were last seen to change */
+    private final Map<File, long[]> pending = new HashMap<File, long[]>();
+
+    /** files that are queued or being cut */
+    private final Set<File> queued = new HashSet<File>();
+
+    /** Creates a new daemon.
+        @param cutter the cutter that cuts the files
+        @param dirs the directories to watch
+        @param outputdir where to store the cropped mp3s, may be
+            <code>null</code> if the cutter does not crop
+    */
+    public WatchDaemon(MP3AutoCut cutter, File[] dirs, File outputdir) throws IOException{
+        this.cutter = cutter;
+        this.dirs = new Path[dirs.length];
+        for (int i = 0; i < dirs.length; i++){
+            if (outputdir != null && dirs[i].getCanonicalFile().equals(outputdir.getCanonicalFile())){
+                throw new IllegalArgumentException("The output directory " + outputdir + " must not be watched.");
+            }
+            this.dirs[i] = dirs[i].toPath();
+        }
+        this.outputdir = outputdir;
+        final String pStable = System.getProperty("stableSeconds");
+        this.stableMillis = (pStable == null)
+            ? 5000l
+            : Math.round(Float.parseFloat(pStable) * 1000);
+        this.stateFile = new File(MP3AutoCut.getSettingDirectory(), STATE_FILE);
+        loadState();
+    }
+
+    /** Watches the directories until the thread is interrupted or none
+        of the directories can be watched any longer. The files that
+        are already in the directories are cut first unless they have
+        been cut before.
+    */
+    public void run() throws IOException, InterruptedException{
+        final int maxThreads = CutScheduler.maxThreads();
+        final int readers = CutScheduler.maxReaders(maxThreads);
+        final ForkJoinPool pool = (readers < maxThreads)
+            ? new ForkJoinPool(maxThreads)
+            : null;
+        final ExecutorService exec = Executors.newFixedThreadPool(readers);
+        final WatchService watcher = FileSystems.getDefault().newWatchService();
+        try{
+            final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+            for (Path dir : dirs){
+                keys.put(dir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                scan(dir);
+            }
+
+            final long tick = Math.max(250l, Math.min(1000l, stableMillis/4));
+            while (!keys.isEmpty()){
+                final WatchKey key = watcher.poll(tick, TimeUnit.MILLISECONDS);
+                if (key != null){
+                    final Path dir = keys.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()){
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW){
+                            scan(dir);
+                        } else {
+                            see(dir.resolve((Path) event.context()).toFile());
+                        }
+                    }
+                    if (!key.reset()){
+                        System.err.println("No longer watching " + dir);
+                        keys.remove(key);
+                    }
+                }
+                queueStableFiles(exec, pool);
+            }
+        } finally {
+            watcher.close();
+            exec.shutdown();
+            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (pool != null){
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Notes all mp3 files in the specified directory. */
+    private void scan(Path dir){
+        final File[] files = dir.toFile().listFiles();
+        if (files != null){
+            for (File f : files){
+                see(f);
+            }
+        }
+    }
+
+    /** Notes an mp3 file that has been created or modified. */
+    private void see(File f){
+        if (f.getName().toLowerCase().endsWith(".mp3") && !pending.containsKey(f)){
+            pending.put(f, new long[]{ -1l, -1l, System.currentTimeMillis() });
+        }
+    }
+
+    /** Queues the pending files that have not changed for stableMillis. */
+    private void queueStableFiles(ExecutorService exec, ForkJoinPool pool){
+        final long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<File, long[]>> it = pending.entrySet().iterator(); it.hasNext(); ){
+            final Map.Entry<File, long[]> e = it.next();
+            final File f = e.getKey();
+            final long[] seen = e.getValue();
+            if (!f.isFile()){
+                it.remove();
+                continue;
+            }
+            final long length = f.length();
+            final long modified = f.lastModified();
+            if (length != seen[0] || modified != seen[1]){
+                seen[0] = length;
+                seen[1] = modified;
+                seen[2] = now;
+            } else if (now - seen[2] >= stableMillis){
+                if (isDone(f, length, modified)){
+                    it.remove();
+                } else if (queue(f)){
+                    it.remove();
+                    exec.execute(new CutJob(f, length, modified, pool));
+                }
+                /* otherwise the file is still being cut, try again later */
+            }
+        }
+    }
+
+    private synchronized boolean queue(File f){
+        return queued.add(f);
+    }
+
+    private synchronized void dequeue(File f){
+        queued.remove(f);
+    }
+
+    /** Returns whether the specified file has been cut or has failed
+        with the specified length and modification time. */
+    private boolean isDone(File f, long length, long modified){
+        final String s = state.getProperty(f.getAbsolutePath());
+        if (s == null){
+            return false;
+        }
+        final String[] fields = s.split(" ");
+        return fields.length == 3
+            && Long.parseLong(fields[0]) == length
+            && Long.parseLong(fields[1]) == modified;
+    }
+
+    /** Records that a file has been cut or has failed and saves the state. */
+    private synchronized void setDone(File f, long length, long modified, String status){
+        state.setProperty(f.getAbsolutePath(), length + " " + modified + " " + status);
+        try{
+            saveState();
+        } catch (IOException ex){
+            System.err.println("Cannot save " + stateFile + ": " + ex);
+        }
+    }
+
+    private void loadState() throws IOException{
+        if (stateFile.isFile()){
+            final InputStream in = new FileInputStream(stateFile);
+            try{
+                state.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private void saveState() throws IOException{
+        final File tmp = new File(stateFile.getParentFile(), STATE_FILE + ".tmp");
+        final OutputStream out = new FileOutputStream(tmp);
+        try{
+            state.store(out, "MP3AutoCut watch state: length lastModified status");
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Cuts a single file and records the outcome.
+    Exceptions thrown by cut are caught and printed on System.err.
+    */
+    private class CutJob implements Runnable{
+        private final File mp3;
+        private final long length;
+        private final long modified;
+        private final ForkJoinPool pool;
+
+        CutJob(File mp3, long length, long modified, ForkJoinPool pool){
+            this.mp3 = mp3;
+            this.length = length;
+            this.modified = modified;
+            this.pool = pool;
+        }
+
+        @Override
+        public void run(){
+            String status = FAILED;
+            try{
+                final CutResult result = cutter.cut(mp3, (outputdir == null)
+                    ? null
+                    : new File(outputdir, mp3.getName()),
+                    pool);
+                if (result.hasCutpoints()){
+                    System.out.print(result + " \n");
+                } else {
+                    System.err.println(mp3.getName() + " No cutpoints found.");
+                }
+                status = DONE;
+            } catch (Exception ex){
+                ex.printStackTrace();
+                System.err.println(ex);
+            } finally {
+                setDone(mp3, length, modified, status);
+                dequeue(mp3);
+            }
+        }
+    }
+}